@@ -20,19 +20,30 @@ import android.app.Activity;
 import android.app.Fragment;
 import android.app.FragmentManager;
 import android.app.FragmentTransaction;
+import android.content.res.AssetManager;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
 import android.view.MenuItem;
+import android.widget.Toast;
+import org.robovm.store.api.QueuedOrder;
 import org.robovm.store.api.RoboVMWebService;
 import org.robovm.store.api.RoboVMWebService.ActionWrapper;
 import org.robovm.store.fragments.*;
 import org.robovm.store.model.Product;
 import org.robovm.store.util.Action;
+import org.robovm.store.util.BitmapDecoder;
+import org.robovm.store.util.ImageBundle;
 import org.robovm.store.util.ImageCache;
 import org.robovm.store.util.Images;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 public class StoreAppActivity extends Activity {
+    private static final String IMAGE_BUNDLE = "image-bundle/";
+
     private int baseFragment;
+    private final Action<QueuedOrder> deferredOrderListener = this::showDeferredOrder;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -40,16 +51,23 @@ public class StoreAppActivity extends Activity {
         getWindowManager().getDefaultDisplay().getMetrics(metrics);
         Images.setScreenWidth(metrics.widthPixels);
         ImageCache.getInstance().setSaveLocation(getCacheDir().getAbsolutePath());
+        // Keep decoded bitmaps in up to an eighth of the available heap.
+        ImageCache.getInstance().setDecoder(new BitmapDecoder(), Runtime.getRuntime().maxMemory() / 8);
+        mountImageBundle();
 
         super.onCreate(savedInstanceState);
 
-        RoboVMWebService.getInstance().setup();
+        // Before any callback can fire, e.g. for the orders resumed below.
         ActionWrapper.WRAPPER = new RoboVMWebService.ActionWrapper() {
             @Override
             public <T> void invoke(Action<T> action, T result) {
                 runOnUiThread(() -> action.invoke(result));
             }
         };
+        RoboVMWebService.getInstance().setup();
+        // Before the orders left from the last run are resumed.
+        RoboVMWebService.getInstance().addOnDeferredOrderListener(deferredOrderListener);
+        RoboVMWebService.getInstance().setSaveLocation(getFilesDir().getAbsolutePath());
 
         setContentView(R.layout.main);
 
@@ -63,6 +81,18 @@ public class StoreAppActivity extends Activity {
         }
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        RoboVMWebService.getInstance().setInForeground(true);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        RoboVMWebService.getInstance().setInForeground(false);
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -185,4 +215,47 @@ public class StoreAppActivity extends Activity {
 
         switchScreens(new BragFragment(), true, true);
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        RoboVMWebService.getInstance().removeOnDeferredOrderListener(deferredOrderListener);
+    }
+
+    /**
+     * Tells the outcome of an order which has been sent in the background.
+     */
+    private void showDeferredOrder(QueuedOrder order) {
+        String message = "Your order has been placed!";
+        if (order.getStatus() == QueuedOrder.Status.REJECTED) {
+            message = "Your order could not be placed! Please try again later!";
+            if (order.getResponse() != null && order.getResponse().getErrors() != null
+                    && !order.getResponse().getErrors().isEmpty()) {
+                message = "Your order could not be placed: " + order.getResponse().getErrors().get(0);
+            }
+        }
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Serves the images packaged into the assets by the imageBundle task
+     * before anything has been downloaded.
+     */
+    private void mountImageBundle() {
+        AssetManager assets = getAssets();
+        InputStream index = null;
+        try {
+            index = assets.open(IMAGE_BUNDLE + ImageBundle.INDEX_FILE);
+            ImageCache.getInstance().setBundle(new ImageBundle(index,
+                    () -> assets.open(IMAGE_BUNDLE + ImageBundle.DATA_FILE)));
+        } catch (IOException e) {
+            // No bundle has been packaged with this build.
+        } finally {
+            if (index != null) {
+                try {
+                    index.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
 }
@@ -145,7 +145,8 @@ public class BasketFragment extends ListFragment {
             ImageView orderImage = (ImageView) view.findViewById(R.id.productImage);
             orderImage.setImageResource(R.drawable.product_image);
 
-            Images.setImageFromUrlAsync(orderImage, order.getColor().getImageUrls().get(0));
+            Images.setThumbnailFromUrlAsync(orderImage, order.getColor().getImageUrls().get(0),
+                    orderImage.getLayoutParams().width);
 
             return view;
         }
@@ -20,7 +20,6 @@ import android.animation.Animator;
 import android.animation.AnimatorInflater;
 import android.animation.ObjectAnimator;
 import android.animation.ValueAnimator;
-import android.app.Activity;
 import android.app.Fragment;
 import android.graphics.Bitmap;
 import android.graphics.Matrix;
@@ -63,6 +62,8 @@ public class ProductDetailsFragment extends Fragment implements ViewTreeObserver
     private KenBurnsDrawable productDrawable;
     private ValueAnimator kenBurnsMovement;
     private ValueAnimator kenBurnsAlpha;
+    private DownloadScheduler.Ticket currentImageTicket;
+    private DownloadScheduler.Ticket nextImageTicket;
 
     public ProductDetailsFragment() {}
 
@@ -71,7 +72,7 @@ public class ProductDetailsFragment extends Fragment implements ViewTreeObserver
         this.slidingDelta = slidingDelta;
         this.order = new Order(product);
 
-        images = product.getImageUrls();
+        images = new ArrayList<>(product.getImageUrls());
         Collections.shuffle(images);
     }
 
@@ -144,6 +145,18 @@ public class ProductDetailsFragment extends Fragment implements ViewTreeObserver
         if (kenBurnsMovement != null) {
             kenBurnsMovement.cancel();
         }
+        cancelImageDownloads();
+    }
+
+    private void cancelImageDownloads() {
+        if (currentImageTicket != null) {
+            currentImageTicket.cancel();
+            currentImageTicket = null;
+        }
+        if (nextImageTicket != null) {
+            nextImageTicket.cancel();
+            nextImageTicket = null;
+        }
     }
 
     @Override
@@ -171,7 +184,7 @@ public class ProductDetailsFragment extends Fragment implements ViewTreeObserver
             return;
         }
         if (images.size() == 1) {
-            Images.setImageFromUrlAsync(productImage, images.get(0));
+            currentImageTicket = Images.setImageFromUrlAsync(productImage, images.get(0));
             return;
         }
         productImage.getViewTreeObserver().addOnGlobalLayoutListener(this);
@@ -181,173 +194,176 @@ public class ProductDetailsFragment extends Fragment implements ViewTreeObserver
     public void onGlobalLayout() {
         productImage.getViewTreeObserver().removeOnGlobalLayoutListener(this);
 
-        new Thread(() -> {
-            Bitmap img1 = Images.fromUrl(images.get(0));
-            Bitmap img2 = Images.fromUrl(images.get(1));
-
-            Activity activity = getActivity();
-            if (activity != null) {
-                activity.runOnUiThread(() -> {
-                    productDrawable = new KenBurnsDrawable(Colors.Green);
-                    productDrawable.setFirstBitmap(img1);
-                    productDrawable.setSecondBitmap(img2);
-                    productImage.setImageDrawable(productDrawable);
-                    currentIndex++;
-
-                    // Check for null bitmaps due to decode errors:
-                    if (productDrawable.getFirstBitmap() != null) {
-                        float resizeRatio = -1;
-                        float widthDiff = -1;
-                        float heightDiff = -1;
-                        float zoomInX = -1;
-                        float zoomInY = -1;
-                        float moveX = -1;
-                        float moveY = -1;
-
-                        float frameWidth = productImage.getWidth();
-                        float frameHeight = productImage.getHeight();
-
-                        float imageWidth = productDrawable.getFirstBitmap().getWidth();
-                        float imageHeight = productDrawable.getFirstBitmap().getHeight();
-
-                        // Wider than screen
-                        if (imageWidth > frameWidth) {
-                            widthDiff = imageWidth - frameWidth;
-
-                            // Higher than screen
-                            if (imageHeight > frameHeight) {
-                                heightDiff = imageHeight - frameHeight;
-
-                                if (widthDiff > heightDiff)
-                                    resizeRatio = frameHeight / imageHeight;
-                                else
-                                    resizeRatio = frameWidth / imageWidth;
-
-                                // No higher than screen [OK]
-                            } else {
-                                heightDiff = frameHeight - imageHeight;
-
-                                if (widthDiff > heightDiff)
-                                    resizeRatio = frameWidth / imageWidth;
-                                else
-                                    resizeRatio = frameHeight / imageHeight;
-                            }
-                            // No wider than screen
+        // Paint the color of the first image while both are decoded.
+        Images.getImageInfo(images.get(0), (info) -> {
+            if (info != null && info.hasColor()) {
+                productImage.setBackgroundColor(info.getColor());
+            }
+        });
+        // Both are looked up and decoded by the scheduler, not on this thread.
+        currentImageTicket = Images.fromUrl(images.get(0), (img1) -> {
+            currentImageTicket = null;
+            nextImageTicket = Images.fromUrl(images.get(1), (img2) -> {
+                nextImageTicket = null;
+                productDrawable = new KenBurnsDrawable(Colors.Green);
+                productDrawable.setFirstBitmap(img1);
+                productDrawable.setSecondBitmap(img2);
+                productImage.setImageDrawable(productDrawable);
+                currentIndex++;
+
+                // Check for null bitmaps due to decode errors:
+                if (productDrawable.getFirstBitmap() != null) {
+                    float resizeRatio = -1;
+                    float widthDiff = -1;
+                    float heightDiff = -1;
+                    float zoomInX = -1;
+                    float zoomInY = -1;
+                    float moveX = -1;
+                    float moveY = -1;
+
+                    float frameWidth = productImage.getWidth();
+                    float frameHeight = productImage.getHeight();
+
+                    float imageWidth = productDrawable.getFirstBitmap().getWidth();
+                    float imageHeight = productDrawable.getFirstBitmap().getHeight();
+
+                    // Wider than screen
+                    if (imageWidth > frameWidth) {
+                        widthDiff = imageWidth - frameWidth;
+
+                        // Higher than screen
+                        if (imageHeight > frameHeight) {
+                            heightDiff = imageHeight - frameHeight;
+
+                            if (widthDiff > heightDiff)
+                                resizeRatio = frameHeight / imageHeight;
+                            else
+                                resizeRatio = frameWidth / imageWidth;
+
+                            // No higher than screen [OK]
                         } else {
-                            widthDiff = frameWidth - imageWidth;
-
-                            // Higher than screen [OK]
-                            if (imageHeight > frameHeight) {
-                                heightDiff = imageHeight - frameHeight;
-
-                                if (widthDiff > heightDiff)
-                                    resizeRatio = imageHeight / frameHeight;
-                                else
-                                    resizeRatio = frameWidth / imageWidth;
-
-                                // No higher than screen [OK]
-                            } else {
-                                heightDiff = frameHeight - imageHeight;
-
-                                if (widthDiff > heightDiff)
-                                    resizeRatio = frameWidth / imageWidth;
-                                else
-                                    resizeRatio = frameHeight / imageHeight;
-                            }
+                            heightDiff = frameHeight - imageHeight;
+
+                            if (widthDiff > heightDiff)
+                                resizeRatio = frameWidth / imageWidth;
+                            else
+                                resizeRatio = frameHeight / imageHeight;
                         }
+                        // No wider than screen
+                    } else {
+                        widthDiff = frameWidth - imageWidth;
+
+                        // Higher than screen [OK]
+                        if (imageHeight > frameHeight) {
+                            heightDiff = imageHeight - frameHeight;
 
-                        // Resize the image.
-                        float optimusWidth = (imageWidth * resizeRatio) * ENLARGE_RATIO;
-                        float optimusHeight = (imageHeight * resizeRatio) * ENLARGE_RATIO;
-
-                        float originX = (frameWidth - optimusWidth) / 2;
-                        float originY = 0;
-
-                        float maxMoveX = Math.min(optimusWidth - frameWidth, 50f);
-                        float maxMoveY = Math.min(optimusHeight - frameHeight, 50f) * 2f / 3;
-
-                        float rotation = random.nextInt(9) / 100f;
-
-                        switch (random.nextInt(3)) {
-                        case 0:
-                            zoomInX = 1.25f;
-                            zoomInY = 1.25f;
-                            moveX = -maxMoveX;
-                            moveY = -maxMoveY;
-                            break;
-                        case 1:
-                            zoomInX = 1.1f;
-                            zoomInY = 1.1f;
-                            moveX = -maxMoveX;
-                            moveY = maxMoveY;
-                            originY = -moveY * zoomInY * 1.1f;
-                            break;
-                        case 2:
-                            zoomInX = 1.2f;
-                            zoomInY = 1.2f;
-                            moveX = 0;
-                            moveY = -maxMoveY;
-                            break;
-                        default:
-                            zoomInX = 1.2f;
-                            zoomInY = 1.2f;
-                            moveX = 0;
-                            moveY = maxMoveY;
-                            originY = -moveY * zoomInY * 1.1f;
-                            break;
+                            if (widthDiff > heightDiff)
+                                resizeRatio = imageHeight / frameHeight;
+                            else
+                                resizeRatio = frameWidth / imageWidth;
+
+                            // No higher than screen [OK]
+                        } else {
+                            heightDiff = frameHeight - imageHeight;
+
+                            if (widthDiff > heightDiff)
+                                resizeRatio = frameWidth / imageWidth;
+                            else
+                                resizeRatio = frameHeight / imageHeight;
                         }
+                    }
 
-                        MatrixEvaluator evaluator = new MatrixEvaluator();
-                        Matrix startMatrix = new Matrix();
-                        startMatrix.setTranslate(originX, originY);
-                        startMatrix
-                                .postScale(resizeRatio * ENLARGE_RATIO, resizeRatio * ENLARGE_RATIO, originX, originY);
-
-                        Matrix finalMatrix = new Matrix();
-                        finalMatrix.setTranslate(originX + moveX, originY + moveY);
-                        finalMatrix
-                                .postScale(resizeRatio * ENLARGE_RATIO * zoomInX, resizeRatio * ENLARGE_RATIO * zoomInY,
-                                        originX, originY);
-                        finalMatrix.postRotate(rotation);
-
-                        kenBurnsMovement = ValueAnimator.ofObject(evaluator, startMatrix, finalMatrix);
-                        kenBurnsMovement.addUpdateListener(
-                                (animator) -> productDrawable.setMatrix((Matrix) animator.getAnimatedValue()));
-                        kenBurnsMovement.setDuration(14000);
-                        kenBurnsMovement.setRepeatMode(ValueAnimator.REVERSE);
-                        kenBurnsMovement.setRepeatCount(ValueAnimator.INFINITE);
-                        kenBurnsMovement.start();
-
-                        kenBurnsAlpha = ObjectAnimator.ofInt(productDrawable, "alpha", 0, 0, 0, 255, 255, 255);
-                        kenBurnsAlpha.setDuration(kenBurnsMovement.getDuration());
-                        kenBurnsAlpha.setRepeatMode(ValueAnimator.REVERSE);
-                        kenBurnsAlpha.setRepeatCount(ValueAnimator.INFINITE);
-                        kenBurnsAlpha.addListener(new Animator.AnimatorListener() {
-                            @Override
-                            public void onAnimationStart(Animator animation) {}
-
-                            @Override
-                            public void onAnimationEnd(Animator animation) {}
-
-                            @Override
-                            public void onAnimationCancel(Animator animation) {}
-
-                            @Override
-                            public void onAnimationRepeat(Animator animation) {
-                                nextImage();
-                            }
-                        });
-                        kenBurnsAlpha.start();
+                    // Resize the image.
+                    float optimusWidth = (imageWidth * resizeRatio) * ENLARGE_RATIO;
+                    float optimusHeight = (imageHeight * resizeRatio) * ENLARGE_RATIO;
+
+                    float originX = (frameWidth - optimusWidth) / 2;
+                    float originY = 0;
+
+                    float maxMoveX = Math.min(optimusWidth - frameWidth, 50f);
+                    float maxMoveY = Math.min(optimusHeight - frameHeight, 50f) * 2f / 3;
+
+                    float rotation = random.nextInt(9) / 100f;
+
+                    switch (random.nextInt(3)) {
+                    case 0:
+                        zoomInX = 1.25f;
+                        zoomInY = 1.25f;
+                        moveX = -maxMoveX;
+                        moveY = -maxMoveY;
+                        break;
+                    case 1:
+                        zoomInX = 1.1f;
+                        zoomInY = 1.1f;
+                        moveX = -maxMoveX;
+                        moveY = maxMoveY;
+                        originY = -moveY * zoomInY * 1.1f;
+                        break;
+                    case 2:
+                        zoomInX = 1.2f;
+                        zoomInY = 1.2f;
+                        moveX = 0;
+                        moveY = -maxMoveY;
+                        break;
+                    default:
+                        zoomInX = 1.2f;
+                        zoomInY = 1.2f;
+                        moveX = 0;
+                        moveY = maxMoveY;
+                        originY = -moveY * zoomInY * 1.1f;
+                        break;
                     }
-                });
-            }
-        }).start();
+
+                    MatrixEvaluator evaluator = new MatrixEvaluator();
+                    Matrix startMatrix = new Matrix();
+                    startMatrix.setTranslate(originX, originY);
+                    startMatrix
+                            .postScale(resizeRatio * ENLARGE_RATIO, resizeRatio * ENLARGE_RATIO, originX, originY);
+
+                    Matrix finalMatrix = new Matrix();
+                    finalMatrix.setTranslate(originX + moveX, originY + moveY);
+                    finalMatrix
+                            .postScale(resizeRatio * ENLARGE_RATIO * zoomInX, resizeRatio * ENLARGE_RATIO * zoomInY,
+                                    originX, originY);
+                    finalMatrix.postRotate(rotation);
+
+                    kenBurnsMovement = ValueAnimator.ofObject(evaluator, startMatrix, finalMatrix);
+                    kenBurnsMovement.addUpdateListener(
+                            (animator) -> productDrawable.setMatrix((Matrix) animator.getAnimatedValue()));
+                    kenBurnsMovement.setDuration(14000);
+                    kenBurnsMovement.setRepeatMode(ValueAnimator.REVERSE);
+                    kenBurnsMovement.setRepeatCount(ValueAnimator.INFINITE);
+                    kenBurnsMovement.start();
+
+                    kenBurnsAlpha = ObjectAnimator.ofInt(productDrawable, "alpha", 0, 0, 0, 255, 255, 255);
+                    kenBurnsAlpha.setDuration(kenBurnsMovement.getDuration());
+                    kenBurnsAlpha.setRepeatMode(ValueAnimator.REVERSE);
+                    kenBurnsAlpha.setRepeatCount(ValueAnimator.INFINITE);
+                    kenBurnsAlpha.addListener(new Animator.AnimatorListener() {
+                        @Override
+                        public void onAnimationStart(Animator animation) {}
+
+                        @Override
+                        public void onAnimationEnd(Animator animation) {}
+
+                        @Override
+                        public void onAnimationCancel(Animator animation) {}
+
+                        @Override
+                        public void onAnimationRepeat(Animator animation) {
+                            nextImage();
+                        }
+                    });
+                    kenBurnsAlpha.start();
+                }
+            });
+        });
     }
 
     private void nextImage() {
         currentIndex = (currentIndex + 1) % images.size();
         String image = images.get(currentIndex);
-        Images.setImageFromUrlAsync(productDrawable, image);
+        currentImageTicket = Images.setImageFromUrlAsync(productDrawable, image);
         precacheNextImage();
     }
 
@@ -360,7 +376,7 @@ public class ProductDetailsFragment extends Fragment implements ViewTreeObserver
         }
         int next = currentIndex + 1;
         String image = images.get(next);
-        ImageCache.getInstance().downloadImage(image, (f) -> {});
+        nextImageTicket = Images.prefetch(image, DownloadScheduler.Priority.NEXT_SCREEN);
     }
 
     public void setAddToBasketListener(Action<Order> listener) {
@@ -25,19 +25,22 @@ import android.view.*;
 import android.view.animation.DecelerateInterpolator;
 import android.widget.*;
 import org.robovm.store.R;
+import org.robovm.store.api.CatalogChange;
+import org.robovm.store.api.CatalogPager;
 import org.robovm.store.api.RoboVMWebService;
 import org.robovm.store.model.Basket;
 import org.robovm.store.model.Product;
+import org.robovm.store.util.Action;
 import org.robovm.store.util.Action2;
+import org.robovm.store.util.DownloadScheduler;
 import org.robovm.store.util.Images;
 import org.robovm.store.views.BadgeDrawable;
 
-import java.util.List;
-
 public class ProductListFragment extends ListFragment {
     private Action2<Product, Integer> productSelectionListener;
     private BadgeDrawable basketBadge;
     private int badgeCount;
+    private Action<CatalogChange> catalogChangeListener;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -46,6 +49,14 @@ public class ProductListFragment extends ListFragment {
         setHasOptionsMenu(true);
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (catalogChangeListener != null) {
+            RoboVMWebService.getInstance().removeOnCatalogChangeListener(catalogChangeListener);
+        }
+    }
+
     @Override
     public android.view.View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         return inflater.inflate(R.layout.robovm_list_layout, container, false);
@@ -60,23 +71,45 @@ public class ProductListFragment extends ListFragment {
             setListAdapter(new ProductListViewAdapter(view.getContext()));
             getData();
         }
+        ProductListViewAdapter adapter = (ProductListViewAdapter) getListAdapter();
+        getListView().setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                if (scrollState == SCROLL_STATE_IDLE) {
+                    // The images of the rest of the catalog load while the list rests.
+                    RoboVMWebService.getInstance().preloadProductImages();
+                }
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                adapter.setVisibleRange(firstVisibleItem, firstVisibleItem + visibleItemCount - 1);
+            }
+        });
     }
 
     private void getData() {
         ProductListViewAdapter adapter = (ProductListViewAdapter) getListAdapter();
-        RoboVMWebService.getInstance().getProducts((products) -> {
-            adapter.setProducts(products);
-            RoboVMWebService.getInstance().preloadProductImages();
-            adapter.notifyDataSetChanged();
-        });
+        // Updates the changed rows or starts over with the new catalog once a
+        // stored one turns out to be outdated.
+        catalogChangeListener = (change) -> {
+            if (change.isInPlace()) {
+                adapter.replace(change);
+            } else {
+                adapter.setPager(RoboVMWebService.getInstance().newCatalogPager());
+            }
+        };
+        RoboVMWebService.getInstance().addOnCatalogChangeListener(catalogChangeListener);
+        adapter.setPager(RoboVMWebService.getInstance().newCatalogPager());
     }
 
     @Override
     public void onListItemClick(ListView l, View v, int position, long id) {
         super.onListItemClick(l, v, position, id);
         ProductListViewAdapter adapter = (ProductListViewAdapter) getListAdapter();
-        if (productSelectionListener != null) {
-            productSelectionListener.invoke(adapter.products.get(position), v.getTop());
+        Product product = adapter.pager.get(position);
+        if (product != null && productSelectionListener != null) {
+            productSelectionListener.invoke(product, v.getTop());
         }
     }
 
@@ -104,30 +137,51 @@ public class ProductListFragment extends ListFragment {
         private Context context;
         private DecelerateInterpolator appearInterpolator = new DecelerateInterpolator();
 
-        private List<Product> products;
+        private CatalogPager pager;
+        private int firstVisible, lastVisible;
         private long newItems;
 
         public ProductListViewAdapter(Context context) {
             this.context = context;
         }
 
-        public void setProducts(List<Product> products) {
-            this.products = products;
+        public void setPager(CatalogPager pager) {
+            if (this.pager != null) {
+                this.pager.setOnChangeListener(null);
+            }
+            this.pager = pager;
+            pager.setOnChangeListener((p) -> notifyDataSetChanged());
+            pager.setVisibleRange(firstVisible, lastVisible);
+            notifyDataSetChanged();
+        }
+
+        public void replace(CatalogChange change) {
+            pager.replace(change.getChangedPositions(), change.getProducts());
+            notifyDataSetChanged();
+        }
+
+        public void setVisibleRange(int first, int last) {
+            firstVisible = first;
+            lastVisible = last;
+            if (pager != null) {
+                pager.setVisibleRange(first, last);
+            }
         }
 
         @Override
         public int getCount() {
-            return products == null ? 0 : products.size();
+            return pager == null ? 0 : pager.getCount();
         }
 
         @Override
         public Object getItem(int position) {
-            return products.get(position).toString();
+            return String.valueOf(pager.get(position));
         }
 
         @Override
         public long getItemId(int position) {
-            return products.get(position).hashCode();
+            Product product = pager.get(position);
+            return product != null ? product.hashCode() : position;
         }
 
         @Override
@@ -144,9 +198,10 @@ public class ProductListFragment extends ListFragment {
             TextView priceLabel = (TextView) convertView.findViewById(R.id.productPrice);
             ProgressBar progressView = (ProgressBar) convertView.findViewById(R.id.productImageSpinner);
 
-            Product product = products.get(position);
-            nameLabel.setText(product.getName());
-            priceLabel.setText(product.getPriceDescription());
+            // Null while its page is loading.
+            Product product = pager.get(position);
+            nameLabel.setText(product != null ? product.getName() : "");
+            priceLabel.setText(product != null ? product.getPriceDescription() : "");
 
             loadProductImage(convertView, progressView, imageView, product);
 
@@ -166,11 +221,22 @@ public class ProductListFragment extends ListFragment {
         }
 
         private void loadProductImage(View mainView, ProgressBar progressView, ImageView imageView, Product product) {
+            // Don't let the image requested for a recycled row land in this one.
+            DownloadScheduler.Ticket previous = (DownloadScheduler.Ticket) imageView.getTag();
+            if (previous != null) {
+                previous.cancel();
+            }
+
             progressView.setVisibility(View.VISIBLE);
             imageView.setImageResource(android.R.color.transparent);
-            Images.setImageFromUrlAsync(imageView, product.getImageUrl(), () -> {
+            if (product == null) {
+                imageView.setTag(null);
+                return;
+            }
+            imageView.setTag(Images.setImageFromUrlAsync(imageView, product.getImageUrl(), () -> {
+                imageView.setTag(null);
                 progressView.setVisibility(View.INVISIBLE);
-            });
+            }));
         }
     }
 
@@ -24,6 +24,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.*;
 import org.robovm.store.R;
+import org.robovm.store.api.QueuedOrder;
 import org.robovm.store.api.RoboVMWebService;
 import org.robovm.store.api.ValidationError;
 import org.robovm.store.model.Country;
@@ -152,23 +153,26 @@ public class ShippingDetailsFragment extends Fragment {
 
         ProgressDialog progressDialog = ProgressDialog.show(getActivity(), "Please wait...", "Placing Order", true);
 
-        RoboVMWebService.getInstance().placeOrder(user, (response) -> {
+        RoboVMWebService.getInstance().placeOrder(user, (order) -> {
             progressDialog.hide();
             progressDialog.dismiss();
             for (EditText entry : entries) {
                 entry.setEnabled(true);
             }
 
-            if (response.isSuccess()) {
+            if (order.getStatus() != QueuedOrder.Status.REJECTED) {
                 RoboVMWebService.getInstance().getBasket().clear();
 
-                Toast.makeText(getActivity(), "Your order has been placed!", Toast.LENGTH_LONG).show();
+                // Otherwise it is sent in the background until it gets through.
+                String message = order.getStatus() == QueuedOrder.Status.PLACED ? "Your order has been placed!"
+                        : "Your order will be placed as soon as you are back online.";
+                Toast.makeText(getActivity(), message, Toast.LENGTH_LONG).show();
 
                 if (orderPlacedListener != null) {
                     orderPlacedListener.run();
                 }
             } else {
-                List<ValidationError> errors = response.getErrors();
+                List<ValidationError> errors = order.getResponse() != null ? order.getResponse().getErrors() : null;
                 String alertMessage = "An unexpected error occurred! Please try again later!";
 
                 if (errors != null) { // We handle only the first error.
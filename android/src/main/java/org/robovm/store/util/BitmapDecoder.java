@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.robovm.store.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+
+public class BitmapDecoder implements ImageDecoder<Bitmap> {
+    @Override
+    public Bitmap decode(File file) {
+        return BitmapFactory.decodeFile(file.getAbsolutePath());
+    }
+
+    @Override
+    public long weigh(Bitmap bitmap) {
+        return bitmap.getByteCount();
+    }
+
+    @Override
+    public int averageColor(Bitmap bitmap) {
+        // Filtering while scaling down to a single pixel blends the image.
+        Bitmap pixel = Bitmap.createScaledBitmap(bitmap, 1, 1, true);
+        int color = pixel.getPixel(0, 0);
+        if (pixel != bitmap) {
+            pixel.recycle();
+        }
+        return color;
+    }
+}
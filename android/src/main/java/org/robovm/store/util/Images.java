@@ -20,71 +20,132 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.widget.ImageView;
 
-import java.io.File;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import org.robovm.store.api.RoboVMWebService.ActionWrapper;
+import org.robovm.store.util.DownloadScheduler.Priority;
+import org.robovm.store.util.DownloadScheduler.Ticket;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 public class Images {
-    private static final ConcurrentMap<String, Bitmap> bmpCache = new ConcurrentHashMap<>();
+    private static final int PREVIEW_SAMPLE_SIZE = 4;
     private static float SCREEN_WIDTH = 320;
+    private static final Executor previews = Executors.newSingleThreadExecutor((r) -> {
+        Thread t = new Thread(r, "Images preview");
+        t.setDaemon(true);
+        return t;
+    });
 
-    public static void setImageFromUrlAsync(ImageView imageView, String url) {
-        fromUrl(url, imageView::setImageBitmap);
+    public static Ticket setImageFromUrlAsync(ImageView imageView, String url) {
+        return fromUrl(url, Priority.VISIBLE, imageView::setImageBitmap);
     }
 
-    public static void setImageFromUrlAsync(BitmapHolder imageView, String url) {
-        fromUrl(url, imageView::setImageBitmap);
+    public static Ticket setImageFromUrlAsync(BitmapHolder imageView, String url) {
+        return fromUrl(url, Priority.VISIBLE, imageView::setImageBitmap);
     }
 
-    public static void setImageFromUrlAsync(ImageView imageView, String url, Runnable completion) {
-        fromUrl(url, (bitmap) -> {
+    public static Ticket setImageFromUrlAsync(ImageView imageView, String url, Runnable completion) {
+        boolean[] finished = {false};
+        return fromUrl(url, Priority.VISIBLE, preview(imageView::setImageBitmap, finished), (bitmap) -> {
+            finished[0] = true;
             imageView.setImageBitmap(bitmap);
             completion.run();
         });
     }
 
-    public static void setImageFromUrlAsync(BitmapHolder imageView, String url, Runnable completion) {
-        fromUrl(url, (bitmap) -> {
+    public static Ticket setImageFromUrlAsync(BitmapHolder imageView, String url, Runnable completion) {
+        return fromUrl(url, Priority.VISIBLE, (bitmap) -> {
             imageView.setImageBitmap(bitmap);
             completion.run();
         });
     }
 
-    public static Bitmap fromUrl(String url) {
-        Bitmap bmp = bmpCache.get(url);
-        if (bmp == null) {
-            File image = ImageCache.getInstance().downloadImage(url);
-            bmp = saveBitmap(url, image);
-        }
-        return bmp;
+    /**
+     * Loads the variant of {@code url} which is at least {@code width} pixels
+     * wide instead of the one sized for the screen.
+     */
+    public static Ticket setThumbnailFromUrlAsync(ImageView imageView, String url, int width) {
+        return load(ImageCache.getInstance().getVariantUrl(url, width), Priority.VISIBLE, null,
+                imageView::setImageBitmap);
+    }
+
+    /**
+     * Passes what is known about the cached image for {@code url} to
+     * {@code completion} without decoding it, or {@code null} if it hasn't
+     * been downloaded yet. It is looked up off the calling thread.
+     */
+    public static void getImageInfo(String url, Action<ImageInfo> completion) {
+        DownloadScheduler.getInstance().lookUpInfo(ImageCache.getInstance().getVariantUrl(url), completion);
+    }
+
+    public static Ticket fromUrl(String url, Action<Bitmap> completion) {
+        return fromUrl(url, Priority.VISIBLE, completion);
+    }
+
+    public static Ticket fromUrl(String url, Priority priority, Action<Bitmap> completion) {
+        return fromUrl(url, priority, null, completion);
     }
 
-    public static void fromUrl(String url, Action<Bitmap> completion) {
-        Bitmap bmp = bmpCache.get(url);
+    public static Ticket fromUrl(String url, Priority priority, Action<DownloadProgress> progress,
+            Action<Bitmap> completion) {
+        return load(ImageCache.getInstance().getVariantUrl(url), priority, progress, completion);
+    }
+
+    private static Ticket load(String url, Priority priority, Action<DownloadProgress> progress,
+            Action<Bitmap> completion) {
+        Bitmap bmp = ImageCache.getInstance().getMemoryImage(url);
         if (bmp != null) {
             completion.invoke(bmp);
-            return;
+            return null;
         }
 
-        File image = ImageCache.getInstance().getImage(url);
-        if (image != null) {
-            completion.invoke(saveBitmap(url, image));
-        } else {
-            ImageCache.getInstance().downloadImage(url, (i) -> {
-                completion.invoke(saveBitmap(url, i));
-            });
-        }
+        return DownloadScheduler.getInstance().schedule(url, priority, progress, (i) -> {
+            completion.invoke(ImageCache.getInstance().decodeImage(url, i));
+        });
     }
 
-    private static Bitmap saveBitmap(String url, File imagePath) {
-        Bitmap bmp = BitmapFactory.decodeFile(imagePath.getAbsolutePath());
-        if (bmp != null) {
-            bmpCache.put(url, bmp);
+    /**
+     * Fetches the image into the disk cache without decoding it.
+     */
+    public static Ticket prefetch(String url, Priority priority) {
+        url = ImageCache.getInstance().getVariantUrl(url);
+        if (ImageCache.getInstance().getMemoryImage(url) != null) {
+            return null;
         }
-        return bmp;
+        return DownloadScheduler.getInstance().schedule(url, priority, null);
+    }
+
+    /**
+     * Returns a progress listener which decodes a downsampled preview of the
+     * partially downloaded image each time another quarter has arrived. The
+     * decoding happens on a background thread and only the bitmap is posted
+     * back, it is dropped if the full image has been shown by then.
+     */
+    private static Action<DownloadProgress> preview(Action<Bitmap> target, boolean[] finished) {
+        int[] shown = {0};
+        return (progress) -> {
+            int quarter = (int) (progress.getFraction() * 4);
+            if (quarter > shown[0] && quarter < 4) {
+                shown[0] = quarter;
+                String path = progress.getPartialFile().getAbsolutePath();
+                previews.execute(() -> {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inSampleSize = PREVIEW_SAMPLE_SIZE;
+                    Bitmap partial = BitmapFactory.decodeFile(path, options);
+                    if (partial != null) {
+                        ActionWrapper.WRAPPER.invoke((bitmap) -> {
+                            if (!finished[0]) {
+                                target.invoke(bitmap);
+                            }
+                        }, partial);
+                    }
+                });
+            }
+        };
     }
 
     public static void setScreenWidth(float screenWidth) {
         SCREEN_WIDTH = screenWidth;
+        ImageCache.getInstance().setViewportWidth((int) screenWidth);
     }
 }
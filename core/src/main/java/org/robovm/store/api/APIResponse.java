@@ -18,8 +18,13 @@ package org.robovm.store.api;
 import java.util.List;
 
 public class APIResponse {
-    private boolean success;
-    private List<ValidationError> errors;
+    private final boolean success;
+    private final List<ValidationError> errors;
+
+    APIResponse(boolean success, List<ValidationError> errors) {
+        this.success = success;
+        this.errors = errors;
+    }
 
     public boolean isSuccess() {
         return success;
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.api;
+
+import java.io.IOException;
+
+import org.robovm.store.model.ModelTypeAdapters;
+import org.robovm.store.model.Order;
+import org.robovm.store.model.Product;
+import org.robovm.store.util.ObjectTypeAdapter;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Reads and writes the requests and responses of the API without
+ * reflection, like {@link ModelTypeAdapters} does for the model.
+ */
+public class ApiTypeAdapters implements TypeAdapterFactory {
+    static final TypeAdapter<ValidationError> VALIDATION_ERROR = new ObjectTypeAdapter<ValidationError>() {
+        @Override
+        protected Object readValue(JsonReader in, String name) throws IOException {
+            switch (name) {
+            case "field":
+            case "message":
+                return in.nextString();
+            default:
+                return UNKNOWN;
+            }
+        }
+
+        @Override
+        protected ValidationError create(Fields fields) {
+            return new ValidationError(fields.get("field"), fields.get("message"));
+        }
+
+        @Override
+        protected void writeFields(JsonWriter out, ValidationError error) throws IOException {
+            out.name("field").value(error.getField());
+            out.name("message").value(error.getMessage());
+        }
+    };
+
+    static final TypeAdapter<AuthRequest> AUTH_REQUEST = new ObjectTypeAdapter<AuthRequest>() {
+        @Override
+        protected Object readValue(JsonReader in, String name) throws IOException {
+            switch (name) {
+            case "username":
+            case "password":
+                return in.nextString();
+            default:
+                return UNKNOWN;
+            }
+        }
+
+        @Override
+        protected AuthRequest create(Fields fields) {
+            return new AuthRequest(fields.get("username"), fields.get("password"));
+        }
+
+        @Override
+        protected void writeFields(JsonWriter out, AuthRequest request) throws IOException {
+            out.name("username").value(request.username);
+            out.name("password").value(request.password);
+        }
+    };
+
+    /**
+     * Returns a Gson which uses these adapters and those of
+     * {@link ModelTypeAdapters}.
+     */
+    public static Gson createGson() {
+        return new GsonBuilder()
+                .registerTypeAdapterFactory(new ModelTypeAdapters())
+                .registerTypeAdapterFactory(new ApiTypeAdapters())
+                .create();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> raw = type.getRawType();
+        if (raw == ValidationError.class) {
+            return (TypeAdapter<T>) VALIDATION_ERROR;
+        } else if (raw == AuthRequest.class) {
+            return (TypeAdapter<T>) AUTH_REQUEST;
+        } else if (raw == OrderRequest.class) {
+            return (TypeAdapter<T>) new OrderRequestAdapter(gson.getAdapter(Order.class));
+        } else if (raw == APIResponse.class) {
+            return (TypeAdapter<T>) new ResponseAdapter<APIResponse>() {
+                @Override
+                protected APIResponse create(Fields fields) {
+                    return new APIResponse(fields.getBoolean("success"), fields.get("errors"));
+                }
+            };
+        } else if (raw == AuthResponse.class) {
+            return (TypeAdapter<T>) new AuthResponseAdapter();
+        } else if (raw == ProductsResponse.class) {
+            return (TypeAdapter<T>) new ProductsResponseAdapter(gson.getAdapter(Product.class));
+        } else if (raw == ProductsDeltaResponse.class) {
+            return (TypeAdapter<T>) new ProductsDeltaResponseAdapter(gson.getAdapter(Product.class));
+        }
+        return null;
+    }
+
+    /**
+     * Reads and writes the fields of {@link APIResponse}, after those of the
+     * subclass like Gson does.
+     */
+    private abstract static class ResponseAdapter<T extends APIResponse> extends ObjectTypeAdapter<T> {
+        @Override
+        protected Object readValue(JsonReader in, String name) throws IOException {
+            switch (name) {
+            case "success":
+                return in.nextBoolean();
+            case "errors":
+                return readList(in, VALIDATION_ERROR);
+            default:
+                return UNKNOWN;
+            }
+        }
+
+        @Override
+        protected void writeFields(JsonWriter out, T response) throws IOException {
+            out.name("success").value(response.isSuccess());
+            out.name("errors");
+            writeList(out, response.getErrors(), VALIDATION_ERROR);
+        }
+    }
+
+    private static class AuthResponseAdapter extends ResponseAdapter<AuthResponse> {
+        @Override
+        protected Object readValue(JsonReader in, String name) throws IOException {
+            if (name.equals("authToken")) {
+                return in.nextString();
+            }
+            return super.readValue(in, name);
+        }
+
+        @Override
+        protected AuthResponse create(Fields fields) {
+            return new AuthResponse(fields.getBoolean("success"), fields.get("errors"), fields.get("authToken"));
+        }
+
+        @Override
+        protected void writeFields(JsonWriter out, AuthResponse response) throws IOException {
+            out.name("authToken").value(response.getAuthToken());
+            super.writeFields(out, response);
+        }
+    }
+
+    private static class ProductsResponseAdapter extends ResponseAdapter<ProductsResponse> {
+        private final TypeAdapter<Product> productAdapter;
+
+        ProductsResponseAdapter(TypeAdapter<Product> productAdapter) {
+            this.productAdapter = productAdapter;
+        }
+
+        @Override
+        protected Object readValue(JsonReader in, String name) throws IOException {
+            switch (name) {
+            case "products":
+                return readList(in, productAdapter);
+            case "total":
+                return in.nextInt();
+            case "version":
+                return in.nextString();
+            default:
+                return super.readValue(in, name);
+            }
+        }
+
+        @Override
+        protected ProductsResponse create(Fields fields) {
+            return new ProductsResponse(fields.getBoolean("success"), fields.get("errors"), fields.get("products"),
+                    fields.get("total"), fields.get("version"));
+        }
+
+        @Override
+        protected void writeFields(JsonWriter out, ProductsResponse response) throws IOException {
+            out.name("products");
+            writeList(out, response.getProducts(), productAdapter);
+            out.name("total").value(response.isPaged() ? (Integer) response.getTotal() : null);
+            out.name("version").value(response.getVersion());
+            super.writeFields(out, response);
+        }
+    }
+
+    private static class ProductsDeltaResponseAdapter extends ResponseAdapter<ProductsDeltaResponse> {
+        private final TypeAdapter<Product> productAdapter;
+
+        ProductsDeltaResponseAdapter(TypeAdapter<Product> productAdapter) {
+            this.productAdapter = productAdapter;
+        }
+
+        @Override
+        protected Object readValue(JsonReader in, String name) throws IOException {
+            switch (name) {
+            case "version":
+                return in.nextString();
+            case "changed":
+                return readList(in, productAdapter);
+            case "removed":
+                return readStrings(in);
+            default:
+                return super.readValue(in, name);
+            }
+        }
+
+        @Override
+        protected ProductsDeltaResponse create(Fields fields) {
+            return new ProductsDeltaResponse(fields.getBoolean("success"), fields.get("errors"),
+                    fields.get("version"), fields.get("changed"), fields.get("removed"));
+        }
+
+        @Override
+        protected void writeFields(JsonWriter out, ProductsDeltaResponse response) throws IOException {
+            out.name("version").value(response.getVersion());
+            out.name("changed");
+            writeList(out, response.getChanged(), productAdapter);
+            out.name("removed");
+            writeStrings(out, response.getRemoved());
+            super.writeFields(out, response);
+        }
+    }
+
+    private static class OrderRequestAdapter extends ObjectTypeAdapter<OrderRequest> {
+        private final TypeAdapter<Order> orderAdapter;
+
+        OrderRequestAdapter(TypeAdapter<Order> orderAdapter) {
+            this.orderAdapter = orderAdapter;
+        }
+
+        @Override
+        protected Object readValue(JsonReader in, String name) throws IOException {
+            switch (name) {
+            case "authToken":
+            case "firstName":
+            case "lastName":
+            case "address1":
+            case "address2":
+            case "zipCode":
+            case "city":
+            case "state":
+            case "phone":
+            case "country":
+                return in.nextString();
+            case "products":
+                return readList(in, orderAdapter);
+            default:
+                return UNKNOWN;
+            }
+        }
+
+        @Override
+        protected OrderRequest create(Fields fields) {
+            return new OrderRequest(fields.get("authToken"), fields.get("firstName"), fields.get("lastName"),
+                    fields.get("address1"), fields.get("address2"), fields.get("zipCode"), fields.get("city"),
+                    fields.get("state"), fields.get("phone"), fields.get("country"), fields.get("products"));
+        }
+
+        @Override
+        protected void writeFields(JsonWriter out, OrderRequest request) throws IOException {
+            out.name("authToken").value(request.authToken);
+            out.name("firstName").value(request.firstName);
+            out.name("lastName").value(request.lastName);
+            out.name("address1").value(request.address1);
+            out.name("address2").value(request.address2);
+            out.name("zipCode").value(request.zipCode);
+            out.name("city").value(request.city);
+            out.name("state").value(request.state);
+            out.name("phone").value(request.phone);
+            out.name("country").value(request.country);
+            out.name("products");
+            writeList(out, request.products, orderAdapter);
+        }
+    }
+}
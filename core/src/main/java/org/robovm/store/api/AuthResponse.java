@@ -15,8 +15,15 @@
  */
 package org.robovm.store.api;
 
+import java.util.List;
+
 public class AuthResponse extends APIResponse {
-    private String authToken;
+    private final String authToken;
+
+    AuthResponse(boolean success, List<ValidationError> errors, String authToken) {
+        super(success, errors);
+        this.authToken = authToken;
+    }
 
     public String getAuthToken() {
         return authToken;
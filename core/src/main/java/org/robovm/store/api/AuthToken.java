@@ -20,30 +20,90 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Token returned by a successful login, which the server accepts for
+ * {@link #TOKEN_LIFE_TIME} minutes. Its age is measured with the wall clock,
+ * like the server does, since the monotonic clock stops while the device is
+ * in deep sleep. The optional callbacks of all tokens run on a single shared
+ * timer thread, they may be late after the device has slept.
+ */
 public class AuthToken {
     private static final long TOKEN_LIFE_TIME = 30; // minutes
+    // Enough for a login round trip on a slow network.
+    private static final long REFRESH_MARGIN = 2; // minutes
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor((r) -> {
+        Thread t = new Thread(r, "AuthToken timer");
+        t.setDaemon(true);
+        return t;
+    });
 
     private final String token;
-    private ScheduledFuture<?> expiredFuture;
+    private final long expiresAt;
+    private final long refreshAt;
+    private final ScheduledFuture<?> refreshFuture;
+    private final ScheduledFuture<?> expiredFuture;
 
     public AuthToken(String token) {
-        this(token, null);
+        this(token, null, null);
     }
 
     public AuthToken(String token, Runnable expired) {
-        this.token = token;
+        this(token, null, expired);
+    }
 
-        if (expired != null) {
-            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-            expiredFuture = executor.schedule(expired, TOKEN_LIFE_TIME, TimeUnit.MINUTES);
-        }
+    /**
+     * @param refresh called {@link #REFRESH_MARGIN} minutes before the token
+     *            expires so a new one can be fetched in time, may be
+     *            {@code null}
+     * @param expired called once the token has expired, may be {@code null}
+     */
+    public AuthToken(String token, Runnable refresh, Runnable expired) {
+        this(token, TimeUnit.MINUTES.toMillis(TOKEN_LIFE_TIME), TimeUnit.MINUTES.toMillis(REFRESH_MARGIN), refresh,
+                expired);
+    }
+
+    AuthToken(String token, long lifeTimeMillis, long refreshMarginMillis, Runnable refresh, Runnable expired) {
+        this.token = token;
+        long now = System.currentTimeMillis();
+        this.expiresAt = now + lifeTimeMillis;
+        this.refreshAt = expiresAt - Math.min(refreshMarginMillis, lifeTimeMillis);
+        this.refreshFuture = refresh != null ? timer.schedule(refresh, refreshAt - now, TimeUnit.MILLISECONDS) : null;
+        this.expiredFuture = expired != null ? timer.schedule(expired, lifeTimeMillis, TimeUnit.MILLISECONDS) : null;
     }
 
     public boolean isExpired() {
-        return expiredFuture.isDone();
+        return System.currentTimeMillis() >= expiresAt;
+    }
+
+    /**
+     * Returns whether the token is about to expire and should be replaced
+     * before it is used for anything which takes a while.
+     */
+    public boolean needsRefresh() {
+        return System.currentTimeMillis() >= refreshAt;
+    }
+
+    /**
+     * Cancels the callbacks which haven't run yet, e.g. once the token has
+     * been replaced.
+     */
+    public void cancel() {
+        if (refreshFuture != null) {
+            refreshFuture.cancel(false);
+        }
+        if (expiredFuture != null) {
+            expiredFuture.cancel(false);
+        }
     }
 
     public String getTokenString() {
         return token;
     }
+
+    @Override
+    public String toString() {
+        return String.format("AuthToken[expiresIn=%ds]",
+                TimeUnit.MILLISECONDS.toSeconds(Math.max(0, expiresAt - System.currentTimeMillis())));
+    }
 }
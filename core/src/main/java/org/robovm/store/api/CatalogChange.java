@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.robovm.store.model.Catalog;
+import org.robovm.store.model.Product;
+import org.robovm.store.util.Objects;
+
+/**
+ * Passed to catalog change listeners. If the catalog has been updated with a
+ * delta, or with the pages which changed, and only existing products changed,
+ * the positions of those are known and lists can update just those rows.
+ */
+public class CatalogChange {
+    private final Catalog catalog;
+    private final List<Product> products;
+    private final List<Integer> changedPositions;
+
+    CatalogChange(Catalog catalog, List<Product> previous, ProductsDeltaResponse delta) {
+        this.catalog = catalog;
+        this.products = catalog.getProducts();
+        this.changedPositions = delta != null ? changedPositions(products, previous, delta) : null;
+    }
+
+    private static List<Integer> changedPositions(List<Product> products, List<Product> previous,
+            ProductsDeltaResponse delta) {
+        if (previous == null || products.size() != previous.size() || !delta.getRemoved().isEmpty()) {
+            return null;
+        }
+        Set<String> ids = new HashSet<>();
+        for (Product product : delta.getChanged()) {
+            ids.add(product.getId());
+        }
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < products.size(); i++) {
+            String id = products.get(i).getId();
+            if (!Objects.equals(id, previous.get(i).getId())) {
+                return null;
+            }
+            if (ids.contains(id)) {
+                positions.add(i);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Returns the new catalog.
+     */
+    public Catalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Returns the products of the new catalog.
+     */
+    public List<Product> getProducts() {
+        return products;
+    }
+
+    /**
+     * Returns whether all products kept their positions, so that only those
+     * at {@link #getChangedPositions()} have to be updated.
+     */
+    public boolean isInPlace() {
+        return changedPositions != null;
+    }
+
+    /**
+     * Returns the positions of the products which changed in place, or
+     * {@code null} if products have been added, removed or the whole catalog
+     * has been replaced.
+     */
+    public List<Integer> getChangedPositions() {
+        return changedPositions != null ? Collections.unmodifiableList(changedPositions) : null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CatalogChange[products=%d, changedPositions=%s]", products.size(), changedPositions);
+    }
+}
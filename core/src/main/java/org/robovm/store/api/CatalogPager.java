@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.robovm.store.api.RoboVMWebService.ActionWrapper;
+import org.robovm.store.api.RoboVMWebService.RoboVMAPI;
+import org.robovm.store.model.Product;
+import org.robovm.store.util.Action;
+import org.robovm.store.util.DownloadScheduler;
+import org.robovm.store.util.DownloadScheduler.Priority;
+import org.robovm.store.util.ImageCache;
+
+import retrofit.Callback;
+import retrofit.Response;
+import retrofit.Retrofit;
+
+/**
+ * Loads the catalog page by page as it is scrolled through. The pages within
+ * {@code prefetchPages} of the visible range are loaded, those further away
+ * than twice that are dropped again.
+ * <p>
+ * Until a page has been loaded its products are taken from the catalog the
+ * pager was created with, if any. A server which doesn't page returns the
+ * whole catalog for the first page requested.
+ */
+public class CatalogPager {
+    private final RoboVMAPI api;
+    private final List<Product> seed;
+    private final int pageSize;
+    private final int prefetchPages;
+    private final PageListener loaded;
+
+    private final Map<Integer, List<Product>> pages = new HashMap<>();
+    private final Set<Integer> loading = new HashSet<>();
+    // -1 until the first page tells.
+    private int count = -1;
+    private boolean complete;
+    private Action<CatalogPager> changeListener;
+
+    /**
+     * @param seed the products to show until their page has been loaded, may
+     *            be {@code null}
+     * @param fresh whether {@code seed} is current and needn't be loaded
+     * @param loaded called with each page loaded, may be {@code null}
+     */
+    CatalogPager(RoboVMAPI api, List<Product> seed, boolean fresh, int pageSize, int prefetchPages,
+            PageListener loaded) {
+        if (pageSize < 1 || prefetchPages < 0) {
+            throw new IllegalArgumentException("invalid page size or prefetch pages");
+        }
+        this.api = api;
+        // Copied, products may be replaced in place.
+        this.seed = seed != null ? new ArrayList<>(seed) : null;
+        this.pageSize = pageSize;
+        this.prefetchPages = prefetchPages;
+        this.loaded = loaded;
+        if (fresh && seed != null) {
+            putAll(seed);
+            complete = true;
+        }
+    }
+
+    /**
+     * Returns the number of products in the catalog, or {@code 0} as long as
+     * it isn't known.
+     */
+    public synchronized int getCount() {
+        if (count >= 0) {
+            return count;
+        }
+        return seed != null ? seed.size() : 0;
+    }
+
+    /**
+     * Returns the product at {@code position}, or {@code null} if its page
+     * hasn't been loaded yet.
+     */
+    public synchronized Product get(int position) {
+        List<Product> page = pages.get(position / pageSize);
+        if (page != null) {
+            int index = position % pageSize;
+            return index < page.size() ? page.get(index) : null;
+        }
+        return seed != null && position < seed.size() ? seed.get(position) : null;
+    }
+
+    /**
+     * Moves the window of loaded pages to the products from {@code first} to
+     * {@code last}, both inclusive.
+     */
+    public void setVisibleRange(int first, int last) {
+        List<Integer> load = new ArrayList<>();
+        synchronized (this) {
+            if (complete) {
+                return;
+            }
+            int from = Math.max(0, first / pageSize - prefetchPages);
+            int to = Math.max(first, last) / pageSize + prefetchPages;
+            if (count >= 0) {
+                to = Math.min(to, (count - 1) / pageSize);
+            }
+            for (Iterator<Integer> it = pages.keySet().iterator(); it.hasNext();) {
+                int page = it.next();
+                if (page < from - prefetchPages || page > to + prefetchPages) {
+                    it.remove();
+                }
+            }
+            for (int page = from; page <= to; page++) {
+                if (!pages.containsKey(page) && loading.add(page)) {
+                    load.add(page);
+                }
+            }
+        }
+        for (int page : load) {
+            loadPage(page);
+        }
+    }
+
+    /**
+     * Replaces the products at {@code positions} with those of the updated
+     * catalog {@code products} whose products kept their positions.
+     */
+    public synchronized void replace(List<Integer> positions, List<Product> products) {
+        for (int position : positions) {
+            Product product = products.get(position);
+            List<Product> page = pages.get(position / pageSize);
+            if (page != null && position % pageSize < page.size()) {
+                page.set(position % pageSize, product);
+            }
+            if (seed != null && position < seed.size()) {
+                seed.set(position, product);
+            }
+        }
+    }
+
+    /**
+     * Sets the listener called whenever pages have been loaded.
+     */
+    public synchronized void setOnChangeListener(Action<CatalogPager> listener) {
+        this.changeListener = listener;
+    }
+
+    private void loadPage(int page) {
+        api.products(page * pageSize, pageSize).enqueue(new Callback<ProductsResponse>() {
+            @Override
+            public void onResponse(Response<ProductsResponse> response, Retrofit retrofit) {
+                List<Product> products = null;
+                if (response.isSuccess() && response.body().isSuccess()) {
+                    ProductsResponse body = response.body();
+                    products = body.getProducts() != null ? body.getProducts() : new ArrayList<>();
+                    pageLoaded(page, products, body.isPaged() ? body.getTotal() : -1);
+                    if (loaded != null) {
+                        loaded.pageLoaded(page, body, response.headers().get("ETag"));
+                    }
+                } else {
+                    synchronized (CatalogPager.this) {
+                        loading.remove(page);
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                t.printStackTrace();
+                synchronized (CatalogPager.this) {
+                    // Tried again when the visible range moves.
+                    loading.remove(page);
+                }
+            }
+        });
+    }
+
+    private void pageLoaded(int page, List<Product> products, int total) {
+        Action<CatalogPager> listener;
+        synchronized (this) {
+            loading.remove(page);
+            if (total < 0) {
+                // The whole catalog.
+                loading.clear();
+                putAll(products);
+                complete = true;
+            } else {
+                count = total;
+                if (page * pageSize < count) {
+                    pages.put(page, products);
+                }
+            }
+            listener = changeListener;
+        }
+
+        for (Product product : products) {
+            for (String url : product.getImageUrls()) {
+                String variant = ImageCache.getInstance().getVariantUrl(url);
+                DownloadScheduler.getInstance().schedule(variant, Priority.PRELOAD, null);
+            }
+        }
+        if (listener != null) {
+            ActionWrapper.WRAPPER.invoke(listener, this);
+        }
+    }
+
+    private void putAll(List<Product> products) {
+        count = products.size();
+        pages.clear();
+        for (int i = 0; i < count; i += pageSize) {
+            pages.put(i / pageSize, new ArrayList<>(products.subList(i, Math.min(count, i + pageSize))));
+        }
+    }
+
+    /**
+     * Told about the pages a pager has loaded.
+     */
+    interface PageListener {
+        /**
+         * @param response the page, or the whole catalog if the server
+         *            doesn't page
+         * @param etag the entity tag the server sent with the page, may be
+         *            {@code null}
+         */
+        void pageLoaded(int page, ProductsResponse response, String etag);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("CatalogPager[count=%d, pages=%d, loading=%d, complete=%b]", count, pages.size(),
+                loading.size(), complete);
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.api;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.robovm.store.api.QueuedOrder.Status;
+import org.robovm.store.api.RoboVMWebService.ActionWrapper;
+import org.robovm.store.util.Action;
+import org.robovm.store.util.Objects;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import retrofit.Response;
+
+/**
+ * Outbound queue of orders which sends them in the background until the
+ * server has accepted or refused them. Orders which can't be sent, because
+ * the network is down or the server fails, are tried again after an
+ * exponentially growing delay with random jitter, so devices which lost
+ * the network together don't come back all at once.
+ * <p>
+ * Added orders are appended to a journal and synced to disk before they are
+ * sent, and the journal is rewritten without them once they are done. The
+ * journal is replayed when the queue is opened, so orders survive the app
+ * being killed. They are sent again once {@link #retry()} is called, after
+ * the listeners have been registered. An order whose answer got lost on the
+ * way is sent again, with the same id.
+ * <p>
+ * Orders are kept without their auth token, the {@link Sender} attaches a
+ * current one whenever it sends them. Orders which the server refuses for
+ * want of a valid token wait until {@link #retry()} is called, e.g. once the
+ * user has logged in again.
+ */
+public class OrderQueue {
+    static final String JOURNAL_FILE = "orders.journal";
+    static final String JOURNAL_HEADER = "org.robovm.store.OrderQueue 1";
+    private static final long BASE_BACKOFF = TimeUnit.SECONDS.toMillis(2);
+    private static final long MAX_BACKOFF = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String ADD = "ADD";
+    private static final String DONE = "DONE";
+
+    // Shared by all queues, sends one order at a time.
+    private static final ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor((r) -> {
+        Thread t = new Thread(r, "OrderQueue sender");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Sends an order to the server, with the auth token of the user.
+     * {@code id} is the same for every attempt to send an order, so the
+     * server can tell an order it has placed already.
+     */
+    public interface Sender {
+        Response<APIResponse> send(String id, OrderRequest request) throws IOException;
+    }
+
+    private final File journalFile;
+    private final Sender transport;
+    private final Gson gson;
+    private final long baseBackoff;
+    private final Random random = new Random();
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final List<Action<QueuedOrder>> statusListeners = new ArrayList<>();
+    private FileOutputStream journalOut;
+    private Writer journal;
+    private ScheduledFuture<?> wakeUp;
+    private boolean closed;
+
+    /**
+     * @param directory where the journal is kept, {@code null} to keep the
+     *            orders in memory only
+     */
+    public OrderQueue(File directory, Sender transport, Gson gson) {
+        this(directory, transport, gson, BASE_BACKOFF);
+    }
+
+    OrderQueue(File directory, Sender transport, Gson gson, long baseBackoff) {
+        this.journalFile = directory != null ? new File(directory, JOURNAL_FILE) : null;
+        this.transport = Objects.requireNonNull(transport, "transport");
+        this.gson = Objects.requireNonNull(gson, "gson");
+        this.baseBackoff = baseBackoff;
+        synchronized (this) {
+            open();
+        }
+    }
+
+    /**
+     * Stores {@code request} and sends it as soon as possible.
+     * {@code firstAttempt} is called with the state of the order once it has
+     * been sent for the first time: placed, rejected or queued to be tried
+     * again.
+     */
+    public QueuedOrder add(OrderRequest request, Action<QueuedOrder> firstAttempt) {
+        Objects.requireNonNull(request, "request");
+        Entry entry = new Entry(UUID.randomUUID().toString(), request.withAuthToken(null), false);
+        entry.firstAttempt = firstAttempt;
+        QueuedOrder order;
+        synchronized (this) {
+            order = entry.snapshot();
+        }
+        notifyStatus(order);
+        // Synced on the sender, not on the caller's thread which may be the
+        // UI thread, and before the order is sent.
+        sender.execute(() -> {
+            synchronized (this) {
+                append(ADD, entry.id, gson.toJson(entry.request));
+                entries.put(entry.id, entry);
+            }
+            submit();
+        });
+        return order;
+    }
+
+    /**
+     * Returns the orders which haven't been placed or rejected yet, oldest
+     * first.
+     */
+    public synchronized List<QueuedOrder> getOrders() {
+        List<QueuedOrder> orders = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            orders.add(entry.snapshot());
+        }
+        return orders;
+    }
+
+    /**
+     * Sends the waiting orders now instead of after their backoff, e.g. once
+     * the network is back, the user has logged in or those of the journal
+     * when the queue has been opened.
+     */
+    public void retry() {
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                entry.waitingForLogin = false;
+                entry.nextAttempt = System.nanoTime();
+            }
+        }
+        sender.execute(this::submit);
+    }
+
+    /**
+     * Stops sending orders and closes the journal. The waiting orders are
+     * sent by the next queue opened on the same directory.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+            wakeUp = null;
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("order journal close failed: " + e.getMessage());
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Registers {@code listener} to be called whenever the status of an
+     * order changes.
+     */
+    public synchronized void addOnStatusChangeListener(Action<QueuedOrder> listener) {
+        statusListeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
+    public synchronized void removeOnStatusChangeListener(Action<QueuedOrder> listener) {
+        statusListeners.remove(listener);
+    }
+
+    /**
+     * Sends every order which is due, one after the other, then waits until
+     * the next one is.
+     */
+    private void submit() {
+        Entry entry;
+        while ((entry = nextDue()) != null) {
+            APIResponse response = null;
+            Status status = Status.QUEUED;
+            boolean waitingForLogin = false;
+            try {
+                Response<APIResponse> result = transport.send(entry.id, entry.request);
+                if (result.isSuccess()) {
+                    response = result.body();
+                    status = response != null && response.isSuccess() ? Status.PLACED : Status.REJECTED;
+                } else if (isUnauthorized(result.code())) {
+                    waitingForLogin = true;
+                } else if (!isTransient(result.code())) {
+                    status = Status.REJECTED;
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("could not send order " + entry.id + ": " + e.getMessage());
+            }
+
+            QueuedOrder order;
+            Action<QueuedOrder> firstAttempt;
+            synchronized (this) {
+                entry.attempts++;
+                entry.status = status;
+                entry.response = response;
+                if (status == Status.QUEUED) {
+                    entry.deferred = true;
+                    entry.waitingForLogin = waitingForLogin;
+                    entry.nextAttempt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff(entry.attempts));
+                } else {
+                    entries.remove(entry.id);
+                    if (journal != null) {
+                        rewriteJournal();
+                    }
+                }
+                order = entry.snapshot();
+                firstAttempt = entry.firstAttempt;
+                entry.firstAttempt = null;
+            }
+            notifyStatus(order);
+            if (firstAttempt != null) {
+                ActionWrapper.WRAPPER.invoke(firstAttempt, order);
+            }
+        }
+    }
+
+    /**
+     * Returns the next order which is due and marks it as being sent, or
+     * schedules the next run for when one will be if there is none.
+     */
+    private Entry nextDue() {
+        QueuedOrder order = null;
+        Entry due = null;
+        synchronized (this) {
+            if (closed) {
+                return null;
+            }
+            long now = System.nanoTime();
+            long next = Long.MAX_VALUE;
+            for (Entry entry : entries.values()) {
+                if (entry.status != Status.QUEUED || entry.waitingForLogin) {
+                    continue;
+                }
+                if (entry.nextAttempt - now <= 0) {
+                    due = entry;
+                    break;
+                }
+                next = Math.min(next, entry.nextAttempt - now);
+            }
+            if (wakeUp != null) {
+                wakeUp.cancel(false);
+                wakeUp = null;
+            }
+            if (due != null) {
+                due.status = Status.SENDING;
+                order = due.snapshot();
+            } else if (next != Long.MAX_VALUE) {
+                wakeUp = sender.schedule(this::submit, next, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (order != null) {
+            notifyStatus(order);
+        }
+        return due;
+    }
+
+    /**
+     * Returns the delay before the next attempt in milliseconds: half of an
+     * exponentially growing, capped backoff plus a random part of the other
+     * half.
+     */
+    long backoff(int attempts) {
+        long backoff = Math.min(MAX_BACKOFF, baseBackoff << Math.min(attempts - 1, 20));
+        long half = backoff / 2;
+        return half + (long) (random.nextDouble() * (backoff - half));
+    }
+
+    private static boolean isUnauthorized(int code) {
+        // The token has expired or is missing, e.g. after a restart.
+        return code == 401 || code == 403;
+    }
+
+    private static boolean isTransient(int code) {
+        // Timeouts, throttling and server errors.
+        return code == 408 || code == 429 || code >= 500;
+    }
+
+    private void notifyStatus(QueuedOrder order) {
+        List<Action<QueuedOrder>> listeners;
+        synchronized (this) {
+            listeners = new ArrayList<>(statusListeners);
+        }
+        for (Action<QueuedOrder> listener : listeners) {
+            ActionWrapper.WRAPPER.invoke(listener, order);
+        }
+    }
+
+    private void open() {
+        if (journalFile == null) {
+            return;
+        }
+        if (journalFile.exists()) {
+            try {
+                replayJournal();
+            } catch (IOException e) {
+                System.err.println("order journal is corrupt: " + e.getMessage());
+            }
+        }
+        rewriteJournal();
+    }
+
+    private void replayJournal() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile),
+                "UTF-8"))) {
+            if (!JOURNAL_HEADER.equals(reader.readLine())) {
+                throw new IOException("unexpected journal header");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ", 3);
+                if (parts[0].equals(ADD) && parts.length == 3) {
+                    try {
+                        OrderRequest request = gson.fromJson(parts[2], OrderRequest.class);
+                        if (request != null) {
+                            // Orders left from before haven't made it at checkout.
+                            // Older journals kept the token, it is dropped on rewrite.
+                            entries.put(parts[1], new Entry(parts[1], request.withAuthToken(null), true));
+                        }
+                    } catch (JsonParseException e) {
+                        continue; // Torn write at the end of the journal.
+                    }
+                } else if (parts[0].equals(DONE) && parts.length == 2) {
+                    // Written by older versions, which didn't rewrite.
+                    entries.remove(parts[1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a journal containing only the waiting orders and atomically
+     * replaces the old one.
+     */
+    private void rewriteJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("order journal close failed: " + e.getMessage());
+            }
+            journal = null;
+        }
+        try {
+            File tmp = new File(journalFile.getPath() + ".tmp");
+            try (FileOutputStream out = newOutputStream(tmp, false)) {
+                Writer writer = new OutputStreamWriter(out, "UTF-8");
+                writer.write(JOURNAL_HEADER);
+                writer.write('\n');
+                for (Entry entry : entries.values()) {
+                    writer.write(ADD + ' ' + entry.id + ' ' + gson.toJson(entry.request) + '\n');
+                }
+                writer.flush();
+                out.getFD().sync();
+            }
+            if (!tmp.renameTo(journalFile)) {
+                throw new IOException("could not replace " + journalFile);
+            }
+            journalOut = newOutputStream(journalFile, true);
+            journal = new OutputStreamWriter(journalOut, "UTF-8");
+        } catch (IOException e) {
+            // Orders are still sent, but won't survive a restart.
+            System.err.println("order journal rewrite failed: " + e.getMessage());
+            journal = null;
+        }
+    }
+
+    private void append(String op, String id, String... args) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.write(op);
+            journal.write(' ');
+            journal.write(id);
+            for (String arg : args) {
+                journal.write(' ');
+                journal.write(arg);
+            }
+            journal.write('\n');
+            journal.flush();
+            journalOut.getFD().sync();
+        } catch (IOException e) {
+            System.err.println("order journal write failed: " + e.getMessage());
+        }
+    }
+
+    private FileOutputStream newOutputStream(File file, boolean append) throws IOException {
+        file.getParentFile().mkdirs();
+        return new FileOutputStream(file, append);
+    }
+
+    private static class Entry {
+        final String id;
+        final OrderRequest request;
+        Status status = Status.QUEUED;
+        int attempts;
+        boolean deferred;
+        // Refused for want of a valid token, until retry() is called.
+        boolean waitingForLogin;
+        // System.nanoTime() of the next attempt.
+        long nextAttempt = System.nanoTime();
+        APIResponse response;
+        Action<QueuedOrder> firstAttempt;
+
+        Entry(String id, OrderRequest request, boolean deferred) {
+            this.id = id;
+            this.request = request;
+            this.deferred = deferred;
+        }
+
+        QueuedOrder snapshot() {
+            return new QueuedOrder(id, status, attempts, deferred, response);
+        }
+    }
+}
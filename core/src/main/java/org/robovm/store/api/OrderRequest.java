@@ -15,6 +15,7 @@
  */
 package org.robovm.store.api;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.robovm.store.model.Basket;
@@ -34,8 +35,26 @@ public class OrderRequest {
     final String country;
     final List<Order> products;
 
+    OrderRequest(String authToken, String firstName, String lastName, String address1, String address2,
+            String zipCode, String city, String state, String phone, String country, List<Order> products) {
+        this.authToken = authToken;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.address1 = address1;
+        this.address2 = address2;
+        this.zipCode = zipCode;
+        this.city = city;
+        this.state = state;
+        this.phone = phone;
+        this.country = country;
+        this.products = products;
+    }
+
+    /**
+     * @param authToken {@code null} if the user isn't logged in
+     */
     public OrderRequest(AuthToken authToken, User user, Basket basket) {
-        this.authToken = authToken.getTokenString();
+        this.authToken = authToken != null ? authToken.getTokenString() : null;
         this.firstName = user.getFirstName();
         this.lastName = user.getLastName();
         this.address1 = user.getAddress1();
@@ -45,6 +64,15 @@ public class OrderRequest {
         this.state = user.getState();
         this.phone = user.getPhone();
         this.country = user.getCountry();
-        this.products = basket.getOrders();
+        // A copy, the order may still be queued once the basket has been cleared.
+        this.products = new ArrayList<>(basket.getOrders());
+    }
+
+    /**
+     * Returns a copy of this request which is sent with {@code authToken}.
+     */
+    OrderRequest withAuthToken(String authToken) {
+        return new OrderRequest(authToken, firstName, lastName, address1, address2, zipCode, city, state, phone,
+                country, products);
     }
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.robovm.store.model.Product;
+
+/**
+ * Changes to the catalog since a given version, as returned by
+ * {@code products?since=<version>}.
+ */
+public class ProductsDeltaResponse extends APIResponse {
+    private final String version;
+    // Added or changed.
+    private final List<Product> changed;
+    // Ids of the removed products.
+    private final List<String> removed;
+
+    ProductsDeltaResponse(boolean success, List<ValidationError> errors, String version, List<Product> changed,
+            List<String> removed) {
+        super(success, errors);
+        this.version = version;
+        this.changed = changed;
+        this.removed = removed;
+    }
+
+    /**
+     * Returns the version of the catalog with these changes applied.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public List<Product> getChanged() {
+        return changed != null ? changed : Collections.<Product> emptyList();
+    }
+
+    public List<String> getRemoved() {
+        return removed != null ? removed : Collections.<String> emptyList();
+    }
+
+    public boolean isEmpty() {
+        return getChanged().isEmpty() && getRemoved().isEmpty();
+    }
+
+    /**
+     * Returns a copy of {@code catalog} with the changed products replacing
+     * those with the same id in place, the new ones appended and the removed
+     * ones left out.
+     */
+    public List<Product> apply(List<Product> catalog) {
+        Map<String, Product> changes = new HashMap<>();
+        for (Product product : getChanged()) {
+            changes.put(product.getId(), product);
+        }
+        Set<String> removes = new HashSet<>(getRemoved());
+
+        List<Product> result = new ArrayList<>(catalog.size() + changes.size());
+        for (Product product : catalog) {
+            if (!removes.contains(product.getId())) {
+                Product change = changes.remove(product.getId());
+                result.add(change != null ? change : product);
+            }
+        }
+        // What's left has been added, in the order the server sent it.
+        for (Product product : getChanged()) {
+            if (changes.containsKey(product.getId()) && !removes.contains(product.getId())) {
+                result.add(product);
+            }
+        }
+        return result;
+    }
+}
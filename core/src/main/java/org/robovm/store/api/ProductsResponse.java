@@ -20,9 +20,46 @@ import java.util.List;
 import org.robovm.store.model.Product;
 
 public class ProductsResponse extends APIResponse {
-    private List<Product> products;
+    private final List<Product> products;
+    // Only sent for a page of the catalog.
+    private final Integer total;
+    private final String version;
+
+    ProductsResponse(boolean success, List<ValidationError> errors, List<Product> products, Integer total,
+            String version) {
+        super(success, errors);
+        this.products = products;
+        this.total = total;
+        this.version = version;
+    }
 
     public List<Product> getProducts() {
         return products;
     }
+
+    /**
+     * Returns the version of the catalog to ask for the changes since, or
+     * {@code null} if the server doesn't tell.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns whether this is a single page of the catalog, as requested with
+     * an offset and limit.
+     */
+    public boolean isPaged() {
+        return total != null;
+    }
+
+    /**
+     * Returns the number of products in the whole catalog.
+     */
+    public int getTotal() {
+        if (total != null) {
+            return total;
+        }
+        return products != null ? products.size() : 0;
+    }
 }
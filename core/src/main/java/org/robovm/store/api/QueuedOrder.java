@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.api;
+
+/**
+ * The state of an order in the {@link OrderQueue} at one point in time.
+ */
+public class QueuedOrder {
+    public enum Status {
+        /** Waiting to be sent, again if it has been tried before. */
+        QUEUED,
+        SENDING,
+        /** Accepted by the server. */
+        PLACED,
+        /** Refused by the server, e.g. because of validation errors. */
+        REJECTED
+    }
+
+    private final String id;
+    private final Status status;
+    private final int attempts;
+    private final boolean deferred;
+    private final APIResponse response;
+
+    QueuedOrder(String id, Status status, int attempts, boolean deferred, APIResponse response) {
+        this.id = id;
+        this.status = status;
+        this.attempts = attempts;
+        this.deferred = deferred;
+        this.response = response;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns whether the server has accepted or refused the order, it
+     * won't be sent again.
+     */
+    public boolean isDone() {
+        return status == Status.PLACED || status == Status.REJECTED;
+    }
+
+    /**
+     * Returns the number of times the order has been sent.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Returns whether the order couldn't be sent at checkout and is, or has
+     * been, sent in the background instead.
+     */
+    public boolean isDeferred() {
+        return deferred;
+    }
+
+    /**
+     * Returns the server's answer once the order is done, {@code null} if it
+     * rejected the order without one.
+     */
+    public APIResponse getResponse() {
+        return response;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QueuedOrder[id=%s, status=%s, attempts=%d, deferred=%b]", id, status, attempts,
+                deferred);
+    }
+}
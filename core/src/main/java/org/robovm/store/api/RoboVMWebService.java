@@ -15,16 +15,37 @@
  */
 package org.robovm.store.api;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.apache.commons.io.FileUtils;
 import org.robovm.store.model.Basket;
+import org.robovm.store.model.Catalog;
+import org.robovm.store.model.Order;
 import org.robovm.store.model.Product;
 import org.robovm.store.model.User;
 import org.robovm.store.util.Action;
+import org.robovm.store.util.DownloadScheduler;
+import org.robovm.store.util.DownloadScheduler.Priority;
 import org.robovm.store.util.ImageCache;
+import org.robovm.store.util.NetworkStack;
 import org.robovm.store.util.Objects;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
 import retrofit.Call;
 import retrofit.Callback;
 import retrofit.GsonConverterFactory;
@@ -32,12 +53,17 @@ import retrofit.Response;
 import retrofit.Retrofit;
 import retrofit.http.Body;
 import retrofit.http.GET;
+import retrofit.http.Header;
 import retrofit.http.POST;
+import retrofit.http.Query;
 
 public class RoboVMWebService {
     private static final RoboVMWebService instance = new RoboVMWebService();
 
-    private RoboVMWebService() {}
+    private RoboVMWebService() {
+        basket.addOnBasketChangeListener(this::pinBasketImages);
+        setOrderQueue(null);
+    }
 
     public static RoboVMWebService getInstance() {
         return instance;
@@ -45,23 +71,68 @@ public class RoboVMWebService {
 
     private static final String API_URL = "https://store-app.robovm.com/api/";
     private static final String API_TEST_URL = "https://store-app.robovm.com/test/";
+    private static final String CATALOG_FILE = "catalog.json";
+    private static final String PAGE_TAGS = "pageTags";
+    // About a screenful.
+    private static final int CATALOG_PAGE_SIZE = 20;
+    private static final int CATALOG_PREFETCH_PAGES = 1;
 
     private RoboVMAPI api;
 
-    private AuthToken authToken;
+    private volatile AuthToken authToken;
+    // Kept in memory to fetch a new token before the current one expires,
+    // only while the app is in the foreground or has orders to send.
+    private volatile AuthRequest credentials;
+    private volatile boolean inForeground = true;
     private User currentUser;
-    private List<Product> products;
+    private Catalog catalog;
     private final Basket basket = new Basket();
+    private OrderQueue orderQueue;
+    private File saveLocation;
+    private final List<Action<QueuedOrder>> deferredOrderListeners = new ArrayList<>();
+
+    private final Gson gson = ApiTypeAdapters.createGson();
+    private File catalogFile;
+    // The catalog products were read from, as stored and as products only to
+    // tell whether a new one differs.
+    private String catalogJson;
+    private String catalogProductsJson;
+    private String catalogVersion;
+    // The ETags of the catalog's pages if it was loaded page by page, null
+    // for those not known.
+    private List<String> catalogPageTags;
+    // The pages the pagers loaded since the catalog was last confirmed.
+    private final Map<Integer, CatalogPage> pagerPages = new HashMap<>();
+    // The catalog whose images have been scheduled to preload.
+    private Catalog preloadedCatalog;
+    private boolean catalogRevalidated;
+    // Whether products have been confirmed by the server since they were read.
+    private boolean catalogFresh;
+    // Completions waiting for the catalog request in flight, null if there is none.
+    private List<Action<List<Product>>> productsWaiting;
+    private int deduplicatedProductCalls;
+    private final List<Action<CatalogChange>> catalogChangeListeners = new ArrayList<>();
+    // Loads the catalog off the caller's thread and the one Retrofit calls back on.
+    private final ExecutorService catalogLoader = Executors.newSingleThreadExecutor((r) -> {
+        Thread t = new Thread(r, "RoboVMWebService catalog");
+        t.setDaemon(true);
+        return t;
+    });
 
     public RoboVMWebService setup() {
         return setup(false);
     }
 
     public RoboVMWebService setup(boolean test) {
+        return setup(test ? API_TEST_URL : API_URL);
+    }
+
+    RoboVMWebService setup(String baseUrl) {
         // Create a REST adapter which points to the RoboVM API.
         Retrofit retrofit = new Retrofit.Builder()
-                .baseUrl(test ? API_TEST_URL : API_URL)
-                .addConverterFactory(GsonConverterFactory.create())
+                .baseUrl(baseUrl)
+                .client(NetworkStack.getInstance().getClient())
+                .addConverterFactory(GsonConverterFactory.create(gson))
                 .build();
 
         // Create an instance of our RoboVM API interface.
@@ -81,101 +152,580 @@ public class RoboVMWebService {
             }
             ActionWrapper.WRAPPER.invoke(completion, true);
         } else {
-            api.auth(new AuthRequest(username, password)).enqueue(new Callback<AuthResponse>() {
-                @Override
-                public void onResponse(Response<AuthResponse> response, Retrofit retrofit) {
-                    boolean success = false;
-                    if (response.isSuccess()) {
-                        AuthResponse body = response.body();
-                        if (body.isSuccess()) {
-                            success = true;
-                            authToken = new AuthToken(body.getAuthToken(), () -> {
-                                // Token timed out.
-                                // TODO token timed out
-                                });
-                        }
-                    }
-                    if (success) {
-                        currentUser = new User();
-                    }
-                    ActionWrapper.WRAPPER.invoke(completion, success);
+            login(new AuthRequest(username, password), (success) -> {
+                if (success) {
+                    currentUser = new User();
                 }
+                ActionWrapper.WRAPPER.invoke(completion, success);
+            });
+        }
+    }
 
-                @Override
-                public void onFailure(Throwable t) {
-                    t.printStackTrace();
-                    ActionWrapper.WRAPPER.invoke(completion, false);
+    /**
+     * Fetches a new token with {@code request}, which is kept to fetch the
+     * next one shortly before it expires.
+     */
+    private void login(AuthRequest request, Action<Boolean> completion) {
+        api.auth(request).enqueue(new Callback<AuthResponse>() {
+            @Override
+            public void onResponse(Response<AuthResponse> response, Retrofit retrofit) {
+                boolean success = response.isSuccess() && response.body().isSuccess();
+                if (success) {
+                    setAuthToken(request, response.body().getAuthToken());
                 }
-            });
+                completion.invoke(success);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                t.printStackTrace();
+                completion.invoke(false);
+            }
+        });
+    }
+
+    private void setAuthToken(AuthRequest request, String token) {
+        AuthToken old = authToken;
+        credentials = request;
+        authToken = new AuthToken(token, () -> refreshAuthToken(request), null);
+        if (old != null) {
+            old.cancel();
+        }
+        // Orders which the server refused for the last token can be sent now.
+        getOrderQueue().retry();
+    }
+
+    private void refreshAuthToken(AuthRequest request) {
+        // Unless the user has logged in again meanwhile.
+        if (credentials != request) {
+            return;
+        }
+        if (!needsCredentials()) {
+            // The user logs in again once the token has expired.
+            credentials = null;
+            return;
+        }
+        login(request, (success) -> {
+            if (!success) {
+                System.err.println("could not refresh auth token");
+            }
+        });
+    }
+
+    /**
+     * Tells whether the app is in the foreground. In the background the auth
+     * token is only refreshed while there are orders to send, otherwise the
+     * credentials are dropped.
+     */
+    public void setInForeground(boolean inForeground) {
+        this.inForeground = inForeground;
+        if (!needsCredentials()) {
+            credentials = null;
         }
     }
 
+    private boolean needsCredentials() {
+        return inForeground || !getOrderQueue().getOrders().isEmpty();
+    }
+
+    /**
+     * Keeps the last catalog loaded and the orders which haven't been sent
+     * yet in {@code saveLocation}. Loads the catalog stored there, if any, so
+     * that {@link #getProducts(Action)} can return it right away, and resumes
+     * sending the orders. Must be called before any order is placed. Does
+     * nothing if {@code saveLocation} is already in use, e.g. when an
+     * activity is recreated.
+     */
+    public synchronized void setSaveLocation(String saveLocation) {
+        File directory = new File(Objects.requireNonNull(saveLocation, "saveLocation"));
+        if (directory.equals(this.saveLocation)) {
+            return;
+        }
+        this.saveLocation = directory;
+        load();
+    }
+
+    /**
+     * Reads the catalog and the orders from the save location again, as on
+     * the next start.
+     */
+    synchronized void load() {
+        setOrderQueue(saveLocation);
+        catalogFile = new File(saveLocation, CATALOG_FILE);
+        catalog = null;
+        catalogJson = null;
+        catalogProductsJson = null;
+        catalogVersion = null;
+        catalogPageTags = null;
+        pagerPages.clear();
+        catalogRevalidated = false;
+        catalogFresh = false;
+        // A request still in flight answers the calls waiting for it only.
+        productsWaiting = null;
+        if (catalogFile.exists()) {
+            try {
+                String json = FileUtils.readFileToString(catalogFile, "UTF-8");
+                ProductsResponse stored = gson.fromJson(json, ProductsResponse.class);
+                if (stored != null && stored.getProducts() != null) {
+                    catalog = new Catalog(stored.getProducts());
+                    catalogJson = json;
+                    catalogProductsJson = gson.toJson(catalog.getProducts());
+                    catalogVersion = stored.getVersion();
+                    JsonElement tags = gson.fromJson(json, JsonObject.class).get(PAGE_TAGS);
+                    if (tags != null) {
+                        catalogPageTags = gson.fromJson(tags, new TypeToken<List<String>>() {}.getType());
+                    }
+                }
+            } catch (IOException | JsonParseException e) {
+                System.err.println("could not read catalog: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the products of the catalog, the stored one if there is one.
+     * The first call then revalidates the catalog in the background and
+     * notifies the catalog change listeners if it has changed. Calls made
+     * while the catalog is being loaded share that request.
+     */
     public void getProducts(Action<List<Product>> completion) {
         Objects.requireNonNull(completion);
 
+        List<Product> products;
+        List<Action<List<Product>>> load = null;
+        synchronized (this) {
+            products = catalog != null ? catalog.getProducts() : null;
+            if (products == null && productsWaiting != null) {
+                productsWaiting.add(completion);
+                deduplicatedProductCalls++;
+                return;
+            }
+            if (productsWaiting == null && (products == null || !catalogRevalidated)) {
+                productsWaiting = load = new ArrayList<>();
+                catalogRevalidated = true;
+                if (products == null) {
+                    productsWaiting.add(completion);
+                }
+            }
+        }
         if (products != null) {
             ActionWrapper.WRAPPER.invoke(completion, products);
-        } else {
-            api.products().enqueue(new Callback<ProductsResponse>() {
-                @Override
-                public void onResponse(Response<ProductsResponse> response, Retrofit retrofit) {
-                    List<Product> products = null;
-                    if (response.isSuccess()) {
-                        ProductsResponse body = response.body();
-                        if (body.isSuccess()) {
-                            products = body.getProducts();
-                        }
+        }
+        if (load != null) {
+            List<Action<List<Product>>> waiting = load;
+            catalogLoader.execute(() -> loadProducts(waiting));
+        }
+    }
+
+    /**
+     * Returns the number of {@link #getProducts(Action)} calls which were
+     * answered by a request already in flight instead of starting their own.
+     */
+    public synchronized int getDeduplicatedProductCalls() {
+        return deduplicatedProductCalls;
+    }
+
+    /**
+     * Loads the catalog and passes its products to the {@code waiting}
+     * completions, or an empty list if it fails and there is no catalog yet.
+     * A catalog with a version is brought up to date with the changes since,
+     * otherwise it is revalidated page by page.
+     */
+    private void loadProducts(List<Action<List<Product>>> waiting) {
+        Catalog updated = loadDelta();
+        if (updated == null) {
+            updated = loadPages();
+        }
+        List<Product> products = updated != null ? updated.getProducts() : null;
+
+        synchronized (this) {
+            if (products == null) {
+                // Try again next time.
+                catalogRevalidated = false;
+                products = catalog != null ? catalog.getProducts() : null;
+            }
+            if (productsWaiting == waiting) {
+                productsWaiting = null;
+            }
+        }
+        if (products == null) {
+            // Return empty list in case of failure.
+            products = new ArrayList<>();
+        }
+        for (Action<List<Product>> completion : waiting) {
+            ActionWrapper.WRAPPER.invoke(completion, products);
+        }
+    }
+
+    /**
+     * Applies the changes since the version of the current catalog, returns
+     * {@code null} if there is no such catalog or the server can't tell them.
+     */
+    private Catalog loadDelta() {
+        Catalog base;
+        String version;
+        synchronized (this) {
+            base = catalog;
+            version = catalogVersion;
+        }
+        if (base == null || version == null) {
+            return null;
+        }
+        try {
+            Response<ProductsDeltaResponse> response = api.productsSince(version).execute();
+            if (!response.isSuccess() || !response.body().isSuccess() || response.body().getVersion() == null) {
+                return null;
+            }
+            ProductsDeltaResponse delta = response.body();
+            List<Product> products = delta.apply(base.getProducts());
+            return updateCatalog(new ProductsResponse(true, null, products, null, delta.getVersion()), delta, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Loads the catalog page by page. Pages stored or loaded by a pager
+     * before are asked for with their ETag, so that only those which have
+     * changed are sent again. Returns {@code null} if a page can't be loaded.
+     */
+    private Catalog loadPages() {
+        Map<Integer, CatalogPage> known = new HashMap<>();
+        synchronized (this) {
+            if (catalog != null && catalogPageTags != null) {
+                List<Product> stored = catalog.getProducts();
+                for (int page = 0; page < catalogPageTags.size(); page++) {
+                    int from = page * CATALOG_PAGE_SIZE;
+                    String etag = catalogPageTags.get(page);
+                    if (etag != null && from < stored.size()) {
+                        int to = Math.min(stored.size(), from + CATALOG_PAGE_SIZE);
+                        known.put(page, new CatalogPage(stored.subList(from, to), stored.size(), catalogVersion, etag));
                     }
+                }
+            }
+            known.putAll(pagerPages);
+        }
 
-                    RoboVMWebService.this.products = products;
-                    if (products == null) {
-                        // Return empty list in case of failure.
-                        products = new ArrayList<>();
+        List<Product> products = new ArrayList<>();
+        // The products which differ from those of the known pages.
+        List<Product> changed = new ArrayList<>();
+        List<String> etags = new ArrayList<>();
+        String version = null;
+        int total = 1;
+        try {
+            for (int page = 0; page * CATALOG_PAGE_SIZE < total; page++) {
+                CatalogPage cached = known.get(page);
+                Response<ProductsResponse> response = api.products(cached != null ? cached.etag : null,
+                        page * CATALOG_PAGE_SIZE, CATALOG_PAGE_SIZE).execute();
+                CatalogPage loaded;
+                if (response.code() == 304 && cached != null) { // Not modified
+                    loaded = cached;
+                } else if (response.isSuccess() && response.body().isSuccess()) {
+                    ProductsResponse body = response.body();
+                    if (!body.isPaged()) {
+                        // The server doesn't page, this is the whole catalog.
+                        return body.getProducts() != null ? updateCatalog(body, null, null) : null;
                     }
-                    ActionWrapper.WRAPPER.invoke(completion, products);
+                    loaded = new CatalogPage(body.getProducts() != null ? body.getProducts()
+                            : Collections.<Product> emptyList(), body.getTotal(), body.getVersion(),
+                            response.headers().get("ETag"));
+                    for (int i = 0; i < loaded.products.size(); i++) {
+                        Product product = loaded.products.get(i);
+                        if (cached == null || i >= cached.products.size()
+                                || !gson.toJson(product).equals(gson.toJson(cached.products.get(i)))) {
+                            changed.add(product);
+                        }
+                    }
+                } else {
+                    return null;
+                }
+                if (page == 0) {
+                    // Later pages may be newer, their changes are asked for
+                    // again next time.
+                    version = loaded.version;
+                }
+                total = loaded.total;
+                products.addAll(loaded.products);
+                etags.add(loaded.etag);
+                if (loaded.products.isEmpty()) {
+                    break;
                 }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        // Lets lists update the rows of those products only.
+        ProductsDeltaResponse delta = new ProductsDeltaResponse(true, null, version, changed,
+                Collections.<String> emptyList());
+        return updateCatalog(new ProductsResponse(true, null, products, null, version), delta, etags);
+    }
+
+    /**
+     * Returns a pager over the catalog for lists which load it as they are
+     * scrolled through. It starts out with the catalog known so far, if any,
+     * which is revalidated like by {@link #getProducts(Action)}. Without one
+     * the rest of the catalog is loaded page by page in the background once
+     * the server turns out to page, the pager only keeps a window of it.
+     */
+    public CatalogPager newCatalogPager() {
+        List<Product> products;
+        boolean fresh;
+        synchronized (this) {
+            products = catalog != null ? catalog.getProducts() : null;
+            fresh = catalogFresh;
+        }
+        CatalogPager pager = new CatalogPager(api, products, fresh, CATALOG_PAGE_SIZE, CATALOG_PREFETCH_PAGES,
+                this::pageLoaded);
+        if (products != null && !fresh) {
+            revalidateCatalog();
+        }
+        return pager;
+    }
 
-                @Override
-                public void onFailure(Throwable t) {
-                    t.printStackTrace();
+    private void pageLoaded(int page, ProductsResponse response, String etag) {
+        if (!response.isPaged()) {
+            catalogLoader.execute(() -> updateCatalog(response, null, null));
+            return;
+        }
+        synchronized (this) {
+            if (!catalogFresh && etag != null) {
+                // Not loaded again while revalidating the catalog.
+                pagerPages.put(page, new CatalogPage(response.getProducts() != null ? response.getProducts()
+                        : Collections.<Product> emptyList(), response.getTotal(), response.getVersion(), etag));
+            }
+        }
+        revalidateCatalog();
+    }
+
+    /**
+     * Loads the catalog in the background unless it has been revalidated
+     * already or is being loaded.
+     */
+    private void revalidateCatalog() {
+        List<Action<List<Product>>> waiting = new ArrayList<>();
+        synchronized (this) {
+            if (productsWaiting != null || catalogRevalidated) {
+                return;
+            }
+            productsWaiting = waiting;
+            catalogRevalidated = true;
+        }
+        catalogLoader.execute(() -> loadProducts(waiting));
+    }
+
+    /**
+     * Makes {@code response} the current catalog, {@code delta} is the change
+     * it was made with if any and {@code pageTags} the ETags of its pages if
+     * it was loaded page by page. Returns the new catalog, or the current one
+     * if its products haven't changed.
+     */
+    private Catalog updateCatalog(ProductsResponse response, ProductsDeltaResponse delta, List<String> pageTags) {
+        JsonObject stored = gson.toJsonTree(response).getAsJsonObject();
+        if (pageTags != null) {
+            // Stored along, the response is read without them.
+            stored.add(PAGE_TAGS, gson.toJsonTree(pageTags));
+        }
+        String json = gson.toJson(stored);
+        String productsJson = gson.toJson(response.getProducts());
+        Catalog updated;
+        Catalog previous;
+        List<Action<CatalogChange>> listeners;
+        File file;
+        synchronized (this) {
+            catalogRevalidated = true;
+            catalogFresh = true;
+            pagerPages.clear();
+            catalogPageTags = pageTags;
+            if (json.equals(catalogJson)) {
+                return catalog;
+            }
+            previous = catalog;
+            if (productsJson.equals(catalogProductsJson)) {
+                // Only the version changed, keep the instances handed out before.
+                updated = previous;
+            } else {
+                updated = new Catalog(response.getProducts());
+                catalog = updated;
+            }
+            catalogJson = json;
+            catalogProductsJson = productsJson;
+            catalogVersion = response.getVersion();
+            listeners = new ArrayList<>(catalogChangeListeners);
+            file = catalogFile;
+        }
 
-                    ActionWrapper.WRAPPER.invoke(completion, new ArrayList<>());
+        if (file != null) {
+            saveCatalog(file, json);
+        }
+        if (updated != previous) {
+            ImageCache.getInstance().setLiveUrls(updated.getImageUrls());
+            if (previous != null) {
+                ActionWrapper.WRAPPER.invoke(this::rebaseBasket, updated);
+                CatalogChange change = new CatalogChange(updated, previous.getProducts(), delta);
+                for (Action<CatalogChange> listener : listeners) {
+                    ActionWrapper.WRAPPER.invoke(listener, change);
                 }
-            });
+            }
+        }
+        return updated;
+    }
+
+    private static void saveCatalog(File file, String json) {
+        // Replace the old catalog at once so a crash can't leave half of it.
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            FileUtils.writeStringToFile(tmp, json, "UTF-8");
+            if (!tmp.renameTo(file)) {
+                throw new IOException("could not rename " + tmp);
+            }
+        } catch (IOException e) {
+            System.err.println("could not save catalog: " + e.getMessage());
+            FileUtils.deleteQuietly(tmp);
         }
     }
 
-    public void placeOrder(User user, Action<APIResponse> completion) {
+    /**
+     * Registers {@code listener} to be called whenever a revalidated catalog
+     * differs from the one returned before.
+     */
+    public synchronized void addOnCatalogChangeListener(Action<CatalogChange> listener) {
+        catalogChangeListeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
+    public synchronized void removeOnCatalogChangeListener(Action<CatalogChange> listener) {
+        catalogChangeListeners.remove(listener);
+    }
+
+    /**
+     * Queues an order for the basket, which is sent right away and in the
+     * background until the server has accepted or refused it.
+     * {@code completion} is called once it has been sent for the first time,
+     * see {@link OrderQueue#add(OrderRequest, Action)}.
+     */
+    public QueuedOrder placeOrder(User user, Action<QueuedOrder> completion) {
         Objects.requireNonNull(user, "user");
         Objects.requireNonNull(completion);
 
-        api.order(new OrderRequest(authToken, currentUser, basket)).enqueue(new Callback<APIResponse>() {
-            @Override
-            public void onResponse(Response<APIResponse> response, Retrofit retrofit) {
-                if (response.isSuccess()) {
-                    ActionWrapper.WRAPPER.invoke(completion, response.body());
-                } else {
-                    ActionWrapper.WRAPPER.invoke(completion, null);
+        // Without a token if the user isn't logged in, it is sent once they are.
+        OrderRequest order = new OrderRequest(authToken, user, basket);
+        OrderQueue queue;
+        synchronized (this) {
+            queue = orderQueue;
+        }
+        return queue.add(order, completion);
+    }
+
+    /**
+     * Returns the queue of orders which are being sent.
+     */
+    public synchronized OrderQueue getOrderQueue() {
+        return orderQueue;
+    }
+
+    /**
+     * Registers {@code listener} to be called when an order which couldn't be
+     * sent at checkout, or before the app was restarted, has been placed or
+     * rejected.
+     */
+    public synchronized void addOnDeferredOrderListener(Action<QueuedOrder> listener) {
+        deferredOrderListeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
+    public synchronized void removeOnDeferredOrderListener(Action<QueuedOrder> listener) {
+        deferredOrderListeners.remove(listener);
+    }
+
+    private synchronized void setOrderQueue(File directory) {
+        if (orderQueue != null) {
+            orderQueue.close();
+        }
+        orderQueue = new OrderQueue(directory, this::sendOrder, gson);
+        orderQueue.addOnStatusChangeListener((order) -> {
+            if (order.isDeferred() && order.isDone()) {
+                List<Action<QueuedOrder>> listeners;
+                synchronized (this) {
+                    listeners = new ArrayList<>(deferredOrderListeners);
+                }
+                for (Action<QueuedOrder> listener : listeners) {
+                    listener.invoke(order);
                 }
             }
+        });
+        orderQueue.retry();
+    }
 
-            @Override
-            public void onFailure(Throwable t) {
-                t.printStackTrace();
-                ActionWrapper.WRAPPER.invoke(completion, null);
+    /**
+     * Sends {@code order} for the {@link OrderQueue} with the current token,
+     * refreshed if need be since the order may have waited longer than tokens
+     * live. It is sent without one if there is none, the queue then waits for
+     * the user to log in. {@code id} lets the server recognize an order it
+     * has placed already.
+     */
+    private Response<APIResponse> sendOrder(String id, OrderRequest order) throws IOException {
+        AuthToken token = authToken;
+        AuthRequest request = credentials;
+        if (token != null && token.needsRefresh() && request != null) {
+            // The refresh hasn't happened in time, e.g. while the device was
+            // asleep. The order is sent with the old token if it fails.
+            Response<AuthResponse> response = api.auth(request).execute();
+            if (response.isSuccess() && response.body().isSuccess()) {
+                setAuthToken(request, response.body().getAuthToken());
             }
-        });
+            token = authToken;
+        }
+        String tokenString = token != null && !token.isExpired() ? token.getTokenString() : null;
+        return api.order(id, order.withAuthToken(tokenString)).execute();
+    }
+
+    /**
+     * Points the orders in the basket at the products of {@code catalog}, so
+     * they show what is sold now. Orders for products which are gone are kept
+     * as they are.
+     */
+    private void rebaseBasket(Catalog catalog) {
+        for (int i = 0; i < basket.size(); i++) {
+            Order order = basket.get(i);
+            Order current = catalog.resolve(order);
+            if (current != null && current.getProduct() != order.getProduct()) {
+                basket.set(i, current);
+            }
+        }
+    }
+
+    private void pinBasketImages() {
+        Set<String> urls = new HashSet<>();
+        for (Order order : basket) {
+            urls.addAll(order.getColor().getImageUrls());
+        }
+        ImageCache.getInstance().setPinnedUrls(urls);
+    }
+
+    /**
+     * Returns the current catalog, {@code null} if none has been loaded yet.
+     */
+    public synchronized Catalog getCatalog() {
+        return catalog;
     }
 
+    /**
+     * Schedules the images of the whole catalog to be downloaded when the
+     * network isn't needed for anything else, e.g. once the product list
+     * stops scrolling. Does nothing if the current catalog has been
+     * scheduled already.
+     */
     public void preloadProductImages() {
-        if (products != null) {
-            new Thread(() -> {
-                for (Product product : products) {
-                    for (String url : product.getImageUrls()) {
-                        ImageCache.getInstance().downloadImage(url);
-                    }
-                }
-            }).start();
+        Catalog current;
+        synchronized (this) {
+            if (catalog == null || catalog == preloadedCatalog) {
+                return;
+            }
+            current = preloadedCatalog = catalog;
+        }
+        for (String url : current.getImageUrls()) {
+            String variant = ImageCache.getInstance().getVariantUrl(url);
+            DownloadScheduler.getInstance().schedule(variant, Priority.PRELOAD, null);
         }
     }
 
@@ -202,8 +752,42 @@ public class RoboVMWebService {
         @GET("products")
         Call<ProductsResponse> products();
 
+        @GET("products")
+        Call<ProductsResponse> products(@Query("offset") int offset, @Query("limit") int limit);
+
+        /**
+         * Returns the page unless it still has the ETag {@code etag}, which
+         * may be {@code null}, otherwise the response is a 304.
+         */
+        @GET("products")
+        Call<ProductsResponse> products(@Header("If-None-Match") String etag, @Query("offset") int offset,
+                @Query("limit") int limit);
+
+        @GET("products")
+        Call<ProductsDeltaResponse> productsSince(@Query("since") String version);
+
         @POST("order")
         Call<APIResponse> order(@Body OrderRequest body);
+
+        @POST("order")
+        Call<APIResponse> order(@Header("Idempotency-Key") String orderId, @Body OrderRequest body);
+    }
+
+    /**
+     * A page of the catalog with the ETag it was sent with.
+     */
+    private static class CatalogPage {
+        private final List<Product> products;
+        private final int total;
+        private final String version;
+        private final String etag;
+
+        CatalogPage(List<Product> products, int total, String version, String etag) {
+            this.products = products;
+            this.total = total;
+            this.version = version;
+            this.etag = etag;
+        }
     }
 
     public static abstract class ActionWrapper {
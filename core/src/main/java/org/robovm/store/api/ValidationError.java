@@ -16,8 +16,13 @@
 package org.robovm.store.api;
 
 public class ValidationError {
-    private String field;
-    private String message;
+    private final String field;
+    private final String message;
+
+    ValidationError(String field, String message) {
+        this.field = field;
+        this.message = message;
+    }
 
     public String getField() {
         return field;
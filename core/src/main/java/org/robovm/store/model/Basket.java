@@ -21,6 +21,12 @@ public class Basket implements Iterable<Order> {
         return orders.get(index);
     }
 
+    public Order set(int index, Order order) {
+        Order old = orders.set(index, order);
+        onBasketChange();
+        return old;
+    }
+
     public Order remove(int index) {
         Order old = orders.remove(index);
         onBasketChange();
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the products of the catalog, indexed by product id
+ * and by the color names and size ids of each product. The image URLs of
+ * each product are collected up front. Products and their colors, which
+ * hold their lists read-only, can't be changed either.
+ */
+public final class Catalog {
+    private final List<Product> products;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Set<String> imageUrls = new LinkedHashSet<>();
+
+    public Catalog(List<Product> products) {
+        this.products = Collections.unmodifiableList(new ArrayList<>(products));
+        for (Product product : this.products) {
+            // The first product with an id wins, like a linear search would.
+            if (!entries.containsKey(product.getId())) {
+                Entry entry = new Entry(product);
+                entries.put(product.getId(), entry);
+                imageUrls.addAll(entry.imageUrls);
+            }
+        }
+    }
+
+    public List<Product> getProducts() {
+        return products;
+    }
+
+    public int size() {
+        return products.size();
+    }
+
+    public boolean isEmpty() {
+        return products.isEmpty();
+    }
+
+    /**
+     * Returns the product with the id {@code id}, or {@code null} if there is
+     * none.
+     */
+    public Product getProduct(String id) {
+        Entry entry = entries.get(id);
+        return entry != null ? entry.product : null;
+    }
+
+    /**
+     * Returns the color named {@code name} of the product with the id
+     * {@code productId}, or {@code null} if there is none.
+     */
+    public ProductColor getColor(String productId, String name) {
+        Entry entry = entries.get(productId);
+        return entry != null ? entry.colors.get(name) : null;
+    }
+
+    /**
+     * Returns the size with the id {@code id} of the product with the id
+     * {@code productId}, or {@code null} if there is none.
+     */
+    public ProductSize getSize(String productId, String id) {
+        Entry entry = entries.get(productId);
+        return entry != null ? entry.sizes.get(id) : null;
+    }
+
+    /**
+     * Returns the image URLs of all colors of the product with the id
+     * {@code productId}, empty if there is none.
+     */
+    public List<String> getImageUrls(String productId) {
+        Entry entry = entries.get(productId);
+        return entry != null ? entry.imageUrls : Collections.<String> emptyList();
+    }
+
+    /**
+     * Returns the image URLs of all products.
+     */
+    public Set<String> getImageUrls() {
+        return Collections.unmodifiableSet(imageUrls);
+    }
+
+    /**
+     * Returns an order for the same product, color and size as {@code order}
+     * taken from this catalog, or {@code null} if any of them is no longer in
+     * it.
+     */
+    public Order resolve(Order order) {
+        Entry entry = entries.get(order.id);
+        if (entry == null) {
+            return null;
+        }
+        ProductColor color = entry.colors.get(order.color);
+        ProductSize size = entry.sizes.get(order.size);
+        if (color == null || size == null) {
+            return null;
+        }
+        return new Order(entry.product, size, color);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Catalog[products=%d, imageUrls=%d]", products.size(), imageUrls.size());
+    }
+
+    private static class Entry {
+        final Product product;
+        final Map<String, ProductColor> colors = new HashMap<>();
+        final Map<String, ProductSize> sizes = new HashMap<>();
+        final List<String> imageUrls;
+
+        Entry(Product product) {
+            this.product = product;
+            if (product.getColors() != null) {
+                for (ProductColor color : product.getColors()) {
+                    if (!colors.containsKey(color.getName())) {
+                        colors.put(color.getName(), color);
+                    }
+                }
+            }
+            if (product.getSizes() != null) {
+                for (ProductSize size : product.getSizes()) {
+                    if (!sizes.containsKey(size.getId())) {
+                        sizes.put(size.getId(), size);
+                    }
+                }
+            }
+            this.imageUrls = product.getImageUrls();
+        }
+    }
+}
@@ -19,10 +19,18 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class Country {
-    private String name;
-    private String code;
+    private final String name;
+    private final String code;
     private final List<String> states = new ArrayList<>();
 
+    Country(String name, String code, List<String> states) {
+        this.name = name;
+        this.code = code;
+        if (states != null) {
+            this.states.addAll(states);
+        }
+    }
+
     public String getName() {
         return name;
     }
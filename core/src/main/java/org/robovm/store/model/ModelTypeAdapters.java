@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.model;
+
+import java.io.IOException;
+
+import org.robovm.store.util.ObjectTypeAdapter;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Reads and writes the model classes without reflection, which is slow
+ * under the AOT compiler. The JSON is the same as Gson's reflective
+ * adapters would read and write.
+ */
+public class ModelTypeAdapters implements TypeAdapterFactory {
+    static final TypeAdapter<ProductType> PRODUCT_TYPE = new TypeAdapter<ProductType>() {
+        @Override
+        public ProductType read(JsonReader in) throws IOException {
+            String name = in.nextString();
+            for (ProductType type : ProductType.values()) {
+                if (type.name().equals(name)) {
+                    return type;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void write(JsonWriter out, ProductType type) throws IOException {
+            out.value(type.name());
+        }
+    }.nullSafe();
+
+    static final TypeAdapter<ProductSize> PRODUCT_SIZE = new ObjectTypeAdapter<ProductSize>() {
+        @Override
+        protected Object readValue(JsonReader in, String name) throws IOException {
+            switch (name) {
+            case "id":
+            case "name":
+                return in.nextString();
+            default:
+                return UNKNOWN;
+            }
+        }
+
+        @Override
+        protected ProductSize create(Fields fields) {
+            return new ProductSize(fields.get("id"), fields.get("name"));
+        }
+
+        @Override
+        protected void writeFields(JsonWriter out, ProductSize size) throws IOException {
+            out.name("id").value(size.getId());
+            out.name("name").value(size.getName());
+        }
+    };
+
+    static final TypeAdapter<ProductColor> PRODUCT_COLOR = new ObjectTypeAdapter<ProductColor>() {
+        @Override
+        protected Object readValue(JsonReader in, String name) throws IOException {
+            switch (name) {
+            case "name":
+                return in.nextString();
+            case "imageUrls":
+                return readStrings(in);
+            default:
+                return UNKNOWN;
+            }
+        }
+
+        @Override
+        protected ProductColor create(Fields fields) {
+            return new ProductColor(fields.get("name"), fields.get("imageUrls"));
+        }
+
+        @Override
+        protected void writeFields(JsonWriter out, ProductColor color) throws IOException {
+            out.name("name").value(color.getName());
+            out.name("imageUrls");
+            writeStrings(out, color.getImageUrls());
+        }
+    };
+
+    static final TypeAdapter<Product> PRODUCT = new ObjectTypeAdapter<Product>() {
+        @Override
+        protected Object readValue(JsonReader in, String name) throws IOException {
+            switch (name) {
+            case "id":
+            case "name":
+            case "description":
+                return in.nextString();
+            case "price":
+                return in.nextDouble();
+            case "type":
+                return PRODUCT_TYPE.read(in);
+            case "colors":
+                return readList(in, PRODUCT_COLOR);
+            case "sizes":
+                return readList(in, PRODUCT_SIZE);
+            default:
+                return UNKNOWN;
+            }
+        }
+
+        @Override
+        protected Product create(Fields fields) {
+            return new Product(fields.get("id"), fields.get("name"), fields.get("description"),
+                    fields.getDouble("price"), fields.get("type"), fields.get("colors"), fields.get("sizes"));
+        }
+
+        @Override
+        protected void writeFields(JsonWriter out, Product product) throws IOException {
+            out.name("id").value(product.getId());
+            out.name("name").value(product.getName());
+            out.name("description").value(product.getDescription());
+            out.name("price").value(product.getPrice());
+            out.name("type");
+            PRODUCT_TYPE.write(out, product.getType());
+            out.name("colors");
+            writeList(out, product.getColors(), PRODUCT_COLOR);
+            out.name("sizes");
+            writeList(out, product.getSizes(), PRODUCT_SIZE);
+        }
+    };
+
+    static final TypeAdapter<Order> ORDER = new ObjectTypeAdapter<Order>() {
+        @Override
+        protected Object readValue(JsonReader in, String name) throws IOException {
+            switch (name) {
+            case "id":
+            case "size":
+            case "color":
+                return in.nextString();
+            default:
+                return UNKNOWN;
+            }
+        }
+
+        @Override
+        protected Order create(Fields fields) {
+            String id = fields.get("id");
+            String size = fields.get("size");
+            String color = fields.get("color");
+            return new Order(id, size, color);
+        }
+
+        @Override
+        protected void writeFields(JsonWriter out, Order order) throws IOException {
+            out.name("id").value(order.id);
+            out.name("size").value(order.size);
+            out.name("color").value(order.color);
+        }
+    };
+
+    static final TypeAdapter<Country> COUNTRY = new ObjectTypeAdapter<Country>() {
+        @Override
+        protected Object readValue(JsonReader in, String name) throws IOException {
+            switch (name) {
+            case "name":
+            case "code":
+                return in.nextString();
+            case "states":
+                return readStrings(in);
+            default:
+                return UNKNOWN;
+            }
+        }
+
+        @Override
+        protected Country create(Fields fields) {
+            return new Country(fields.get("name"), fields.get("code"), fields.get("states"));
+        }
+
+        @Override
+        protected void writeFields(JsonWriter out, Country country) throws IOException {
+            out.name("name").value(country.getName());
+            out.name("code").value(country.getCode());
+            out.name("states");
+            writeStrings(out, country.getStates());
+        }
+    };
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> raw = type.getRawType();
+        if (raw == Product.class) {
+            return (TypeAdapter<T>) PRODUCT;
+        } else if (raw == ProductColor.class) {
+            return (TypeAdapter<T>) PRODUCT_COLOR;
+        } else if (raw == ProductSize.class) {
+            return (TypeAdapter<T>) PRODUCT_SIZE;
+        } else if (raw == ProductType.class) {
+            return (TypeAdapter<T>) PRODUCT_TYPE;
+        } else if (raw == Order.class) {
+            return (TypeAdapter<T>) ORDER;
+        } else if (raw == Country.class) {
+            return (TypeAdapter<T>) COUNTRY;
+        }
+        return null;
+    }
+}
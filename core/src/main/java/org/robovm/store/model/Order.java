@@ -24,6 +24,13 @@ public class Order {
     String size;
     String color;
 
+    // Only the ids, as read back from JSON.
+    Order(String id, String size, String color) {
+        this.id = id;
+        this.size = size;
+        this.color = color;
+    }
+
     public Order(Order order) {
         setProduct(order.getProduct());
         setSize(order.getSize());
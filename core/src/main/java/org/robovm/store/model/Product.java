@@ -17,20 +17,35 @@ package org.robovm.store.model;
 
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
 public class Product {
-    private String id;
-    private String name;
-    private String description;
-    private double price;
-    private ProductType type;
-    private List<ProductColor> colors;
-    private List<ProductSize> sizes;
+    private final String id;
+    private final String name;
+    private final String description;
+    private final double price;
+    private final ProductType type;
+    private final List<ProductColor> colors;
+    private final List<ProductSize> sizes;
 
-    private final Random random = new Random();
-    private int imageIndex = -1;
+    // Not part of the catalog, must not end up in its snapshot.
+    private final transient Random random = new Random();
+    private transient int imageIndex = -1;
+    private transient volatile List<String> imageUrls;
+
+    Product(String id, String name, String description, double price, ProductType type,
+            List<ProductColor> colors, List<ProductSize> sizes) {
+        this.id = id;
+        this.name = name;
+        this.description = description;
+        this.price = price;
+        this.type = type;
+        this.colors = colors != null ? Collections.unmodifiableList(colors) : null;
+        this.sizes = sizes != null ? Collections.unmodifiableList(sizes) : null;
+    }
 
     public String getId() {
         return id;
@@ -64,12 +79,22 @@ public class Product {
         return sizes;
     }
 
+    /**
+     * Returns the image URLs of all colors, collected once.
+     */
     public List<String> getImageUrls() {
-        List<String> urls = new ArrayList<>();
-        if (colors != null) {
-            for (ProductColor color : colors) {
-                urls.addAll(color.getImageUrls());
+        List<String> urls = imageUrls;
+        if (urls == null) {
+            List<String> all = new ArrayList<>();
+            if (colors != null) {
+                for (ProductColor color : colors) {
+                    if (color.getImageUrls() != null) {
+                        all.addAll(color.getImageUrls());
+                    }
+                }
             }
+            urls = Collections.unmodifiableList(Arrays.asList(all.toArray(new String[all.size()])));
+            imageUrls = urls;
         }
         return urls;
     }
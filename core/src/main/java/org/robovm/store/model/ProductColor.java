@@ -15,11 +15,17 @@
  */
 package org.robovm.store.model;
 
+import java.util.Collections;
 import java.util.List;
 
 public class ProductColor {
-    private String name;
-    private List<String> imageUrls;
+    private final String name;
+    private final List<String> imageUrls;
+
+    ProductColor(String name, List<String> imageUrls) {
+        this.name = name;
+        this.imageUrls = imageUrls != null ? Collections.unmodifiableList(imageUrls) : null;
+    }
 
     public String getName() {
         return name;
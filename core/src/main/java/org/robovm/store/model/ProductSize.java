@@ -16,8 +16,13 @@
 package org.robovm.store.model;
 
 public class ProductSize {
-    private String id;
-    private String name;
+    private final String id;
+    private final String name;
+
+    ProductSize(String id, String name) {
+        this.id = id;
+        this.name = name;
+    }
 
     public String getId() {
         return id;
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of transfers running against each host with an
+ * additive increase, multiplicative decrease window. Every transfer which
+ * completes in reasonable time while the window is in full use widens it by
+ * a fraction, so it grows by about one per round of transfers. A timeout, or
+ * a response whose first byte takes much longer than the host's best
+ * smoothed latency, halves it, at most once per round. The time to the first
+ * byte doesn't depend on the size of the image, unlike the time of the whole
+ * transfer.
+ * <p>
+ * The smoothed latency and throughput of each host are kept for
+ * diagnostics.
+ */
+public class ConcurrencyController {
+    private static final int MIN_WINDOW = 1;
+    // Weight of a new sample in the moving averages.
+    private static final double SMOOTHING = 0.2;
+    // A first byte slower than this multiple of the baseline signals congestion.
+    private static final double LATENCY_TOLERANCE = 3;
+    // Lets the baseline follow a network which has become slower for good.
+    private static final double BASELINE_DRIFT = 1.01;
+
+    private final int initialWindow;
+    private final int maxWindow;
+    private final Map<String, Host> hosts = new HashMap<>();
+    private final List<Action<String>> releaseListeners = new ArrayList<>();
+
+    public ConcurrencyController(int initialWindow, int maxWindow) {
+        if (initialWindow < MIN_WINDOW || maxWindow < initialWindow) {
+            throw new IllegalArgumentException("invalid window " + initialWindow + "/" + maxWindow);
+        }
+        this.initialWindow = initialWindow;
+        this.maxWindow = maxWindow;
+    }
+
+    /**
+     * Waits until another transfer may be started against {@code host}. Every
+     * call must be followed by {@link #release}.
+     */
+    public synchronized void acquire(String host) throws InterruptedException {
+        Host h = host(host);
+        while (h.running >= (int) h.window) {
+            wait();
+        }
+        h.running++;
+    }
+
+    /**
+     * Like {@link #acquire(String)}, but returns {@code false} at once if the
+     * window of {@code host} is full.
+     */
+    public synchronized boolean tryAcquire(String host) {
+        Host h = host(host);
+        if (h.running >= (int) h.window) {
+            return false;
+        }
+        h.running++;
+        return true;
+    }
+
+    /**
+     * Ends a transfer started with {@link #acquire(String)} and adjusts the
+     * window of {@code host} to how it went. Transfers which failed for
+     * another reason than a timeout don't say anything about the network and
+     * leave it unchanged.
+     *
+     * @param bytes the number of bytes transferred, {@code 0} if it failed
+     * @param firstByteNanos how long it took until the response started
+     * @param durationNanos how long the whole transfer took
+     */
+    public void release(String host, long bytes, long firstByteNanos, long durationNanos, boolean timedOut) {
+        update(host, bytes, firstByteNanos, durationNanos, timedOut);
+        released(host);
+    }
+
+    /**
+     * Ends a transfer started with {@link #acquire(String)} which didn't take
+     * place after all, without adjusting the window of {@code host}.
+     */
+    public void cancel(String host) {
+        synchronized (this) {
+            host(host).running--;
+            notifyAll();
+        }
+        released(host);
+    }
+
+    /**
+     * Registers {@code listener} to be called with the host whenever a
+     * transfer has ended, e.g. to start a queued one with
+     * {@link #tryAcquire(String)}. It is called on the thread which ended the
+     * transfer.
+     */
+    public synchronized void addOnReleaseListener(Action<String> listener) {
+        releaseListeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
+    public synchronized void removeOnReleaseListener(Action<String> listener) {
+        releaseListeners.remove(listener);
+    }
+
+    private void released(String host) {
+        List<Action<String>> listeners;
+        synchronized (this) {
+            listeners = new ArrayList<>(releaseListeners);
+        }
+        for (Action<String> listener : listeners) {
+            listener.invoke(host);
+        }
+    }
+
+    private synchronized void update(String host, long bytes, long firstByteNanos, long durationNanos,
+            boolean timedOut) {
+        Host h = host(host);
+        boolean saturated = h.running >= (int) h.window;
+        h.running--;
+        h.sinceDecrease++;
+        notifyAll();
+
+        boolean congested = timedOut;
+        if (!timedOut && bytes > 0) {
+            double latency = Math.max(1, TimeUnit.NANOSECONDS.toMillis(firstByteNanos));
+            double throughput = bytes * 1000 / Math.max(1, TimeUnit.NANOSECONDS.toMillis(durationNanos));
+            h.latency = h.latency == 0 ? latency : h.latency + SMOOTHING * (latency - h.latency);
+            h.throughput = h.throughput == 0 ? throughput : h.throughput + SMOOTHING * (throughput - h.throughput);
+            h.baseline = h.baseline == 0 ? h.latency : Math.min(h.latency, h.baseline * BASELINE_DRIFT);
+            congested = latency > LATENCY_TOLERANCE * h.baseline;
+        } else if (!timedOut) {
+            return;
+        }
+
+        if (congested) {
+            if (h.sinceDecrease >= h.window) {
+                h.window = Math.max(MIN_WINDOW, h.window / 2);
+                h.sinceDecrease = 0;
+            }
+        } else if (saturated) {
+            h.window = Math.min(maxWindow, h.window + 1 / h.window);
+        }
+    }
+
+    /**
+     * Returns the number of transfers currently allowed against
+     * {@code host}.
+     */
+    public synchronized int getWindow(String host) {
+        return (int) host(host).window;
+    }
+
+    /**
+     * Returns the smoothed time to the first byte of transfers from
+     * {@code host} in milliseconds, {@code 0} if none has completed yet.
+     */
+    public synchronized double getLatency(String host) {
+        return host(host).latency;
+    }
+
+    /**
+     * Returns the smoothed throughput of single transfers from {@code host}
+     * in bytes per second, {@code 0} if none has completed yet.
+     */
+    public synchronized double getThroughput(String host) {
+        return host(host).throughput;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("ConcurrencyController[");
+        String separator = "";
+        for (Map.Entry<String, Host> e : hosts.entrySet()) {
+            Host h = e.getValue();
+            sb.append(separator).append(String.format("%s: window=%d, running=%d, latency=%.0fms, "
+                    + "throughput=%.0fB/s", e.getKey(), (int) h.window, h.running, h.latency, h.throughput));
+            separator = ", ";
+        }
+        return sb.append(']').toString();
+    }
+
+    private Host host(String host) {
+        Objects.requireNonNull(host, "host");
+        Host h = hosts.get(host);
+        if (h == null) {
+            h = new Host(initialWindow);
+            hosts.put(host, h);
+        }
+        return h;
+    }
+
+    private static class Host {
+        double window;
+        int running;
+        int sinceDecrease;
+        double latency;
+        double baseline;
+        double throughput;
+
+        Host(double window) {
+            this.window = window;
+        }
+    }
+}
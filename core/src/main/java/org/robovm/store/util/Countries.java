@@ -20,8 +20,10 @@ import java.nio.charset.Charset;
 
 import org.apache.commons.io.IOUtils;
 import org.robovm.store.model.Country;
+import org.robovm.store.model.ModelTypeAdapters;
 
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
 
 public class Countries {
@@ -36,7 +38,7 @@ public class Countries {
 
     private static void readCountries() {
         try {
-            Gson gson = new Gson();
+            Gson gson = new GsonBuilder().registerTypeAdapterFactory(new ModelTypeAdapters()).create();
             countries = gson.fromJson(
                     IOUtils.toString(Countries.class.getResourceAsStream("/countries.json"),
                             Charset.defaultCharset()), Country[].class);
@@ -0,0 +1,742 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullWriter;
+
+/**
+ * Content-addressed file store. Every entry is keyed by the MD5 hash of its
+ * URL and lives in a subdirectory named after the first two hex digits of
+ * that hash, so no single directory grows with the catalog and URLs sharing a
+ * file name never collide.
+ * <p>
+ * The store is bounded by a byte budget and evicts least recently used
+ * entries once it is exceeded. Additions, reads and removals are appended to
+ * a journal which is replayed when the cache is opened, so the index and its
+ * access order are restored without listing or stating the cached files. The
+ * journal is written and compacted on a background thread, a lookup never
+ * waits for the disk.
+ * Entries are written to a temporary file first and renamed into place, a
+ * file returned by this cache is therefore always complete.
+ * <p>
+ * Each entry carries an expiry time, kept in the journal and thus in memory,
+ * and optionally a set of validators stored in a {@code .meta} file next to
+ * the entry which is only read when the entry needs to be revalidated. A
+ * short single line description of an entry's content, e.g. the dimensions of
+ * an image, can be kept in the journal as well.
+ * <p>
+ * Entries written with {@link #putResumable} are staged in a separate
+ * directory which survives a failed transfer and reopening the cache, so the
+ * transfer can be continued where it stopped.
+ * <p>
+ * Entries can be marked as live, i.e. still referenced by the app, or pinned.
+ * Once a live set is known, eviction starts with the entries outside of it and
+ * {@link #sweep()} removes those altogether. Pinned entries are never evicted.
+ */
+public class DiskCache {
+    static final String JOURNAL_FILE = "journal";
+    static final String JOURNAL_HEADER = "org.robovm.store.DiskCache 1";
+    static final String METADATA_SUFFIX = ".meta";
+    private static final String TMP_DIR = "tmp";
+    private static final String STAGING_DIR = "staging";
+    private static final long STAGING_MAX_AGE = TimeUnit.DAYS.toMillis(7);
+    private static final int SHARD_LENGTH = 2;
+    private static final int COMPACT_THRESHOLD = 2000;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final String PUT = "PUT";
+    private static final String READ = "READ";
+    private static final String DEL = "DEL";
+    private static final String INFO = "INFO";
+
+    // Writes the journals of all caches in order, off the threads using them.
+    private static final ExecutorService journalWriter = Executors.newSingleThreadExecutor((r) -> {
+        Thread t = new Thread(r, "DiskCache journal");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File directory;
+    private final File journalFile;
+    private final File tmpDirectory;
+    private final File stagingDirectory;
+    private final Map<String, Entry> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxSize;
+    private long size;
+    private int redundantOps;
+    private boolean rewritePending;
+    // Only used on the journal writer.
+    private Writer journal;
+    private Set<String> liveKeys;
+    private Set<String> pinnedKeys = Collections.emptySet();
+
+    public DiskCache(File directory, long maxSize) {
+        this.directory = Objects.requireNonNull(directory, "directory");
+        this.journalFile = new File(directory, JOURNAL_FILE);
+        this.tmpDirectory = new File(directory, TMP_DIR);
+        this.stagingDirectory = new File(directory, STAGING_DIR);
+        this.maxSize = maxSize;
+        open();
+    }
+
+    public static String keyFor(String url) {
+        return MD5Util.md5Hex(url);
+    }
+
+    public synchronized File get(String url) {
+        String key = keyFor(url);
+        Entry entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+        append(READ, key);
+        return entry.file;
+    }
+
+    public synchronized boolean contains(String url) {
+        return index.containsKey(keyFor(url));
+    }
+
+    public File put(String url, InputStream in) throws IOException {
+        return put(url, in, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Stores the content of {@code in} for {@code url}, replacing any previous
+     * entry.
+     *
+     * @param expires time in milliseconds since the epoch after which the
+     *            entry should be revalidated
+     * @param validators values needed to revalidate the entry later, may be
+     *            {@code null}
+     */
+    public File put(String url, InputStream in, long expires, Properties validators) throws IOException {
+        return put(url, in, expires, validators, null);
+    }
+
+    /**
+     * Like {@link #put(String, InputStream, long, Properties)}, but calls
+     * {@code progress} with the partially written file and the number of
+     * bytes written so far after every chunk.
+     */
+    public File put(String url, InputStream in, long expires, Properties validators,
+            Action2<File, Long> progress) throws IOException {
+        String key = keyFor(url);
+        File file = fileFor(key);
+        File tmp = File.createTempFile(key, ".tmp", tmpDirectory);
+        try {
+            copy(in, tmp, 0, progress);
+            synchronized (this) {
+                commit(key, tmp, file, expires);
+                writeValidators(key, validators);
+            }
+        } finally {
+            tmp.delete();
+        }
+        return file;
+    }
+
+    /**
+     * Like {@link #put(String, InputStream, long, Properties, Action2)}, but
+     * the data is written to a staging file which is kept if the transfer
+     * fails. Only one transfer per URL may be in progress at a time.
+     *
+     * @param offset the number of staged bytes {@code in} continues from, as
+     *            returned by {@link #getStagedLength(String)}, or {@code 0}
+     *            to start over
+     * @param validators values identifying the content being transferred,
+     *            which are staged along with it
+     */
+    public File putResumable(String url, InputStream in, long offset, long expires, Properties validators,
+            Action2<File, Long> progress) throws IOException {
+        String key = keyFor(url);
+        File staged = stagedFileFor(key);
+        if (offset == 0) {
+            stagingDirectory.mkdirs();
+            writeProperties(stagedMetadataFileFor(key), validators);
+        } else if (offset != staged.length()) {
+            throw new IOException("Staged data for " + url + " has changed");
+        }
+        copy(in, staged, offset, progress);
+        File file = fileFor(key);
+        synchronized (this) {
+            commit(key, staged, file, expires);
+            writeValidators(key, validators != null ? validators : getStagedValidators(url));
+        }
+        stagedMetadataFileFor(key).delete();
+        return file;
+    }
+
+    /**
+     * Returns the number of bytes kept from an interrupted
+     * {@link #putResumable} for {@code url}.
+     */
+    public long getStagedLength(String url) {
+        return stagedFileFor(keyFor(url)).length();
+    }
+
+    /**
+     * Returns the validators the staged bytes for {@code url} were written
+     * with. Returns an empty set if there are none.
+     */
+    public Properties getStagedValidators(String url) {
+        return readProperties(stagedMetadataFileFor(keyFor(url)));
+    }
+
+    public void discardStaged(String url) {
+        String key = keyFor(url);
+        stagedFileFor(key).delete();
+        stagedMetadataFileFor(key).delete();
+    }
+
+    /**
+     * Returns the expiry time of the entry for {@code url} or {@code -1} if
+     * there is no such entry.
+     */
+    public synchronized long getExpires(String url) {
+        Entry entry = index.get(keyFor(url));
+        return entry == null ? -1 : entry.expires;
+    }
+
+    /**
+     * Reads the validators stored with the entry for {@code url}. Returns an
+     * empty set if there are none.
+     */
+    public Properties getValidators(String url) {
+        return readProperties(metadataFileFor(keyFor(url)));
+    }
+
+    private static Properties readProperties(File file) {
+        Properties validators = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            validators.load(in);
+        } catch (FileNotFoundException e) {
+            // No validators stored.
+        } catch (IOException e) {
+            System.err.println("reading cache metadata failed: " + e.getMessage());
+        }
+        return validators;
+    }
+
+    /**
+     * Updates the expiry time and, if not {@code null}, the validators of an
+     * existing entry.
+     */
+    public synchronized boolean refresh(String url, long expires, Properties validators) {
+        String key = keyFor(url);
+        Entry old = index.get(key);
+        if (old == null) {
+            return false;
+        }
+        index.put(key, new Entry(old.file, old.size, expires, old.info));
+        append(PUT, key, String.valueOf(old.size), String.valueOf(expires));
+        flushQuietly();
+        if (validators != null) {
+            writeValidators(key, validators);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the description stored with the entry for {@code url} by
+     * {@link #setInfo(String, String)}, or {@code null} if there is none.
+     */
+    public synchronized String getInfo(String url) {
+        Entry entry = index.get(keyFor(url));
+        return entry == null ? null : entry.info;
+    }
+
+    /**
+     * Stores a description, which must not contain line breaks, with the
+     * existing entry for {@code url}. It is dropped when the entry is
+     * replaced.
+     */
+    public synchronized boolean setInfo(String url, String info) {
+        Objects.requireNonNull(info, "info");
+        if (info.indexOf('\n') >= 0 || info.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("info must be a single line");
+        }
+        String key = keyFor(url);
+        Entry old = index.get(key);
+        if (old == null) {
+            return false;
+        }
+        index.put(key, new Entry(old.file, old.size, old.expires, info));
+        append(INFO, key, info);
+        flushQuietly();
+        return true;
+    }
+
+    public synchronized boolean remove(String url) {
+        String key = keyFor(url);
+        Entry entry = index.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        delete(entry);
+        return true;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized long sizeInBytes() {
+        return size;
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        trimToSize();
+    }
+
+    /**
+     * Sets the keys of the entries which are still referenced. Until this has
+     * been called every entry counts as live.
+     */
+    public synchronized void setLiveKeys(Set<String> keys) {
+        liveKeys = new HashSet<>(keys);
+        trimToSize();
+    }
+
+    /**
+     * Sets the keys of the entries which must not be evicted.
+     */
+    public synchronized void setPinnedKeys(Set<String> keys) {
+        pinnedKeys = new HashSet<>(keys);
+        trimToSize();
+    }
+
+    /**
+     * Removes every entry which is neither live nor pinned and returns their
+     * number.
+     */
+    public synchronized int sweep() {
+        if (liveKeys == null) {
+            return 0;
+        }
+        int removed = 0;
+        Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> entry = it.next();
+            if (!liveKeys.contains(entry.getKey()) && !pinnedKeys.contains(entry.getKey())) {
+                it.remove();
+                delete(entry.getValue());
+                removed++;
+            }
+        }
+        flushQuietly();
+        return removed;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Writes the journal records of all changes so far and waits until they
+     * are on disk.
+     */
+    public void flush() throws IOException {
+        await(journalWriter.submit(() -> {
+            journal.flush();
+            return null;
+        }));
+    }
+
+    public void close() throws IOException {
+        await(journalWriter.submit(() -> {
+            journal.close();
+            return null;
+        }));
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    File fileFor(String key) {
+        return new File(new File(directory, key.substring(0, SHARD_LENGTH)), key);
+    }
+
+    private File metadataFileFor(String key) {
+        return new File(new File(directory, key.substring(0, SHARD_LENGTH)), key + METADATA_SUFFIX);
+    }
+
+    File stagedFileFor(String key) {
+        return new File(stagingDirectory, key);
+    }
+
+    private File stagedMetadataFileFor(String key) {
+        return new File(stagingDirectory, key + METADATA_SUFFIX);
+    }
+
+    /**
+     * Copies {@code in} to {@code file}, appending to its first
+     * {@code offset} bytes, which are included in the reported progress.
+     */
+    private static void copy(InputStream in, File file, long offset, Action2<File, Long> progress)
+            throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        long written = offset;
+        try (OutputStream out = new FileOutputStream(file, offset > 0)) {
+            boolean eof = false;
+            while (!eof) {
+                int n = 0;
+                try {
+                    while (n < buffer.length) {
+                        int read = in.read(buffer, n, buffer.length - n);
+                        if (read < 0) {
+                            eof = true;
+                            break;
+                        }
+                        n += read;
+                    }
+                } finally {
+                    // Keep what has arrived even if the transfer fails.
+                    out.write(buffer, 0, n);
+                }
+                written += n;
+                if (n > 0 && progress != null) {
+                    progress.invoke(file, written);
+                }
+            }
+        }
+    }
+
+    private void writeValidators(String key, Properties validators) {
+        writeProperties(metadataFileFor(key), validators);
+    }
+
+    private void writeProperties(File file, Properties validators) {
+        if (validators == null || validators.isEmpty()) {
+            file.delete();
+            return;
+        }
+        try {
+            File tmp = File.createTempFile(file.getName(), ".tmp", tmpDirectory);
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                validators.store(out, null);
+            }
+            if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Could not move " + tmp + " to " + file);
+            }
+        } catch (IOException e) {
+            System.err.println("writing cache metadata failed: " + e.getMessage());
+        }
+    }
+
+    private void commit(String key, File tmp, File file, long expires) throws IOException {
+        File shard = file.getParentFile();
+        if (!shard.isDirectory() && !shard.mkdirs()) {
+            throw new IOException("Could not create " + shard);
+        }
+        Entry old = index.remove(key);
+        if (old != null) {
+            size -= old.size;
+        }
+        if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+            throw new IOException("Could not move " + tmp + " to " + file);
+        }
+        Entry entry = new Entry(file, file.length(), expires);
+        index.put(key, entry);
+        size += entry.size;
+        append(PUT, key, String.valueOf(entry.size), String.valueOf(expires));
+        flushQuietly();
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        if (liveKeys != null) {
+            evict(false);
+        }
+        evict(true);
+        flushQuietly();
+    }
+
+    /**
+     * Evicts least recently used entries until the cache fits, skipping
+     * pinned entries and, unless {@code live} is set, live ones.
+     */
+    private void evict(boolean live) {
+        Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            String key = eldest.getKey();
+            if (pinnedKeys.contains(key) || !live && liveKeys.contains(key)) {
+                continue;
+            }
+            it.remove();
+            delete(eldest.getValue());
+        }
+    }
+
+    private void delete(Entry entry) {
+        size -= entry.size;
+        entry.file.delete();
+        metadataFileFor(entry.file.getName()).delete();
+        append(DEL, entry.file.getName());
+    }
+
+    private void open() {
+        FileUtils.deleteQuietly(tmpDirectory);
+        tmpDirectory.mkdirs();
+        File[] staged = stagingDirectory.listFiles();
+        if (staged != null) {
+            long oldest = System.currentTimeMillis() - STAGING_MAX_AGE;
+            for (File file : staged) {
+                if (file.lastModified() < oldest) {
+                    file.delete();
+                }
+            }
+        }
+
+        try {
+            // Another cache may still be writing to the journal.
+            await(journalWriter.submit(() -> {}));
+        } catch (IOException e) {
+            System.err.println("waiting for cache journal failed: " + e.getMessage());
+        }
+        boolean replayed = false;
+        if (journalFile.exists()) {
+            try {
+                replayJournal();
+                replayed = true;
+            } catch (IOException e) {
+                System.err.println("cache journal is corrupt: " + e.getMessage());
+                index.clear();
+                size = 0;
+            }
+        }
+        if (!replayed) {
+            scanShards();
+        }
+        scheduleRewrite();
+        trimToSize();
+    }
+
+    private void replayJournal() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile),
+                "UTF-8"))) {
+            if (!JOURNAL_HEADER.equals(reader.readLine())) {
+                throw new IOException("unexpected journal header");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length < 2 || parts[1].length() <= SHARD_LENGTH) {
+                    continue; // Torn write at the end of the journal.
+                }
+                String key = parts[1];
+                switch (parts[0]) {
+                case PUT:
+                    if (parts.length >= 3) {
+                        Entry old = index.remove(key);
+                        if (old != null) {
+                            size -= old.size;
+                        }
+                        long expires = parts.length >= 4 ? Long.parseLong(parts[3]) : 0;
+                        Entry entry = new Entry(fileFor(key), Long.parseLong(parts[2]), expires);
+                        index.put(key, entry);
+                        size += entry.size;
+                    }
+                    break;
+                case READ:
+                    index.get(key);
+                    break;
+                case INFO:
+                    Entry described = index.get(key);
+                    if (described != null && parts.length >= 3) {
+                        String info = line.substring(INFO.length() + key.length() + 2);
+                        index.put(key, new Entry(described.file, described.size, described.expires, info));
+                    }
+                    break;
+                case DEL:
+                    Entry old = index.remove(key);
+                    if (old != null) {
+                        size -= old.size;
+                    }
+                    break;
+                default:
+                    break;
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void scanShards() {
+        File[] shards = directory.listFiles((dir, name) -> name.length() == SHARD_LENGTH);
+        if (shards == null) {
+            return;
+        }
+        for (File shard : shards) {
+            File[] files = shard.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                String name = file.getName();
+                if (file.isFile() && name.startsWith(shard.getName()) && name.indexOf('.') < 0) {
+                    Entry entry = new Entry(file, file.length(), 0);
+                    index.put(file.getName(), entry);
+                    size += entry.size;
+                }
+            }
+        }
+    }
+
+    private void scheduleRewrite() {
+        if (!rewritePending) {
+            rewritePending = true;
+            journalWriter.execute(this::rewriteJournal);
+        }
+    }
+
+    /**
+     * Writes a journal containing only the current entries, in access order,
+     * and atomically replaces the old one. Runs on the journal writer, the
+     * records of changes made meanwhile follow and are replayed again.
+     */
+    private void rewriteJournal() {
+        Map<String, Entry> entries;
+        synchronized (this) {
+            rewritePending = false;
+            redundantOps = 0;
+            entries = new LinkedHashMap<>(index);
+        }
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+            File tmp = new File(directory, JOURNAL_FILE + ".tmp");
+            try (Writer writer = newWriter(tmp, false)) {
+                writer.write(JOURNAL_HEADER);
+                writer.write('\n');
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    writer.write(PUT + ' ' + e.getKey() + ' ' + entry.size + ' ' + entry.expires + '\n');
+                    if (entry.info != null) {
+                        writer.write(INFO + ' ' + e.getKey() + ' ' + entry.info + '\n');
+                    }
+                }
+            }
+            if (!tmp.renameTo(journalFile)) {
+                throw new IOException("Could not replace " + journalFile);
+            }
+            journal = newWriter(journalFile, true);
+        } catch (IOException e) {
+            System.err.println("cache journal rewrite failed: " + e.getMessage());
+            journal = new NullWriter();
+        }
+    }
+
+    private void append(String op, String... args) {
+        StringBuilder record = new StringBuilder(op);
+        for (String arg : args) {
+            record.append(' ').append(arg);
+        }
+        record.append('\n');
+        journalWriter.execute(() -> {
+            try {
+                journal.write(record.toString());
+            } catch (IOException e) {
+                System.err.println("cache journal write failed: " + e.getMessage());
+            }
+        });
+        if (!PUT.equals(op) && !INFO.equals(op) && ++redundantOps >= COMPACT_THRESHOLD
+                && redundantOps >= index.size()) {
+            scheduleRewrite();
+        }
+    }
+
+    private void flushQuietly() {
+        journalWriter.execute(() -> {
+            try {
+                journal.flush();
+            } catch (IOException e) {
+                System.err.println("cache journal flush failed: " + e.getMessage());
+            }
+        });
+    }
+
+    private Writer newWriter(File file, boolean append) throws IOException {
+        directory.mkdirs();
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append),
+                "UTF-8"));
+    }
+
+    private static class Entry {
+        final File file;
+        final long size;
+        final long expires;
+        final String info;
+
+        Entry(File file, long size, long expires) {
+            this(file, size, expires, null);
+        }
+
+        Entry(File file, long size, long expires, String info) {
+            this.file = file;
+            this.size = size;
+            this.expires = expires;
+            this.info = info;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import java.io.File;
+
+/**
+ * Progress of an image download. The partial file holds the bytes received
+ * so far and can be decoded to show a progressive preview. It only exists
+ * until the download completes.
+ */
+public class DownloadProgress {
+    private final String url;
+    private final File partialFile;
+    private final long bytesRead;
+    private final long contentLength;
+
+    public DownloadProgress(String url, File partialFile, long bytesRead, long contentLength) {
+        this.url = url;
+        this.partialFile = partialFile;
+        this.bytesRead = bytesRead;
+        this.contentLength = contentLength;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public File getPartialFile() {
+        return partialFile;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the size of the response body or {@code -1} if the server
+     * didn't send it.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Returns the fraction of the body received so far or {@code -1} if the
+     * content length is unknown.
+     */
+    public float getFraction() {
+        return contentLength > 0 ? (float) bytesRead / contentLength : -1;
+    }
+
+    @Override
+    public String toString() {
+        return url + " " + bytesRead + "/" + contentLength;
+    }
+}
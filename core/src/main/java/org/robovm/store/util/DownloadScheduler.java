@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.robovm.store.api.RoboVMWebService.ActionWrapper;
+
+/**
+ * Runs image downloads through {@link ImageCache} on a bounded number of
+ * threads. Queued downloads are started in order of their {@link Priority},
+ * so images on screen are fetched before the ones needed next and background
+ * preloading only uses bandwidth nobody else is waiting for.
+ * <p>
+ * A download is only handed to a thread once ImageCache's concurrency
+ * controller admits another transfer to its host, so downloads of lower
+ * priority never hold up those of higher priority waiting for it.
+ * <p>
+ * Requests for the same URL share one queued download which runs with the
+ * highest priority of its requests. Cancelling the last request of a queued
+ * download removes it from the queue.
+ * <p>
+ * The cache is looked up on a thread of the scheduler as well, so scheduling
+ * never does disk I/O on the caller's thread, e.g. the UI thread binding a
+ * list cell.
+ */
+public class DownloadScheduler {
+    // Matches the largest window of ImageCache's concurrency controller, which
+    // decides how many of these actually transfer at the same time.
+    private static final int DEFAULT_PARALLELISM = 8;
+
+    private static final DownloadScheduler instance = new DownloadScheduler(DEFAULT_PARALLELISM);
+
+    public static DownloadScheduler getInstance() {
+        return instance;
+    }
+
+    public enum Priority {
+        VISIBLE, NEXT_SCREEN, PRELOAD
+    }
+
+    private final Map<Priority, LinkedHashSet<Task>> lanes = new EnumMap<>(Priority.class);
+    private final Map<String, Task> tasks = new HashMap<>();
+    private final ThreadPoolExecutor executor;
+    private final ConcurrencyController concurrency = ImageCache.getInstance().getConcurrencyController();
+    // Downloads handed to the executor.
+    private int running;
+    // Cache hits are delivered from here without waiting for a transfer thread.
+    private final ExecutorService lookups = Executors.newSingleThreadExecutor((r) -> {
+        Thread t = new Thread(r, "DownloadScheduler lookup");
+        t.setDaemon(true);
+        return t;
+    });
+
+    DownloadScheduler(int parallelism) {
+        for (Priority priority : Priority.values()) {
+            lanes.put(priority, new LinkedHashSet<>());
+        }
+        executor = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), (r) -> {
+                    Thread t = new Thread(r, "DownloadScheduler");
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        concurrency.addOnReleaseListener((host) -> dispatch());
+    }
+
+    /**
+     * Schedules the download of {@code url}. The completion, which may be
+     * {@code null}, is invoked through {@link ActionWrapper} unless the
+     * returned ticket has been cancelled.
+     */
+    public Ticket schedule(String url, Priority priority, Action<File> completion) {
+        return schedule(url, priority, null, completion);
+    }
+
+    /**
+     * Like {@link #schedule(String, Priority, Action)}, but also reports the
+     * progress of the transfer to {@code progress}, if not {@code null}.
+     */
+    public Ticket schedule(String url, Priority priority, Action<DownloadProgress> progress,
+            Action<File> completion) {
+        Objects.requireNonNull(url, "url");
+        Objects.requireNonNull(priority, "priority");
+
+        Ticket ticket = new Ticket(priority, progress, completion);
+        lookups.execute(() -> lookUp(url, ticket));
+        return ticket;
+    }
+
+    /**
+     * Passes what is known about the cached image for {@code url}, as
+     * returned by {@link ImageCache#getImageInfo(String)}, to
+     * {@code completion} through {@link ActionWrapper}. It is looked up on
+     * the thread the cache is looked up on for scheduled downloads, before
+     * those scheduled later.
+     */
+    public void lookUpInfo(String url, Action<ImageInfo> completion) {
+        Objects.requireNonNull(url, "url");
+        Objects.requireNonNull(completion, "completion");
+        lookups.execute(() -> ActionWrapper.WRAPPER.invoke(completion, ImageCache.getInstance().getImageInfo(url)));
+    }
+
+    /**
+     * Delivers the cached image for {@code url} or queues its download,
+     * unless {@code ticket} has been cancelled meanwhile.
+     */
+    private void lookUp(String url, Ticket ticket) {
+        if (ticket.isCancelled()) {
+            return;
+        }
+        File cached = ImageCache.getInstance().getImage(url);
+        synchronized (this) {
+            if (ticket.done) {
+                return;
+            }
+            if (cached == null) {
+                Task task = tasks.get(url);
+                if (task == null) {
+                    task = new Task(url, ticket.priority);
+                    tasks.put(url, task);
+                    lanes.get(task.priority).add(task);
+                }
+                ticket.task = task;
+                task.tickets.add(ticket);
+                updatePriority(task);
+            } else {
+                ticket.done = true;
+            }
+        }
+        if (cached != null) {
+            ticket.deliver(cached);
+        } else {
+            dispatch();
+        }
+    }
+
+    public synchronized int getParallelism() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Changes the number of downloads running at the same time.
+     */
+    public synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        if (parallelism > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(parallelism);
+            executor.setCorePoolSize(parallelism);
+        } else {
+            executor.setCorePoolSize(parallelism);
+            executor.setMaximumPoolSize(parallelism);
+        }
+        dispatch();
+    }
+
+    /**
+     * Returns the number of downloads waiting in the given lane.
+     */
+    public synchronized int getQueued(Priority priority) {
+        return lanes.get(priority).size();
+    }
+
+    /**
+     * Hands queued downloads to free threads, highest priority first, as long
+     * as the concurrency controller admits a transfer to their hosts.
+     */
+    private void dispatch() {
+        List<Task> start = new ArrayList<>();
+        synchronized (this) {
+            for (LinkedHashSet<Task> lane : lanes.values()) {
+                Iterator<Task> it = lane.iterator();
+                while (it.hasNext() && running < executor.getMaximumPoolSize()) {
+                    Task task = it.next();
+                    if (concurrency.tryAcquire(ImageCache.hostOf(task.url))) {
+                        it.remove();
+                        task.running = true;
+                        running++;
+                        start.add(task);
+                    }
+                }
+            }
+        }
+        for (Task task : start) {
+            executor.execute(() -> run(task));
+        }
+    }
+
+    private void run(Task task) {
+        try {
+            download(task);
+        } finally {
+            synchronized (this) {
+                running--;
+            }
+            dispatch();
+        }
+    }
+
+    private void download(Task task) {
+        File file = ImageCache.getInstance().downloadImageWithPermit(task.url, (p) -> {
+            List<Ticket> listening;
+            synchronized (this) {
+                listening = new ArrayList<>(task.tickets);
+            }
+            for (Ticket ticket : listening) {
+                ticket.deliverProgress(p);
+            }
+        });
+        if (file != null && task.priority != Priority.PRELOAD) {
+            // Decode here rather than on the thread receiving the completion.
+            ImageCache.getInstance().decodeImage(task.url, file);
+        }
+
+        List<Ticket> tickets;
+        synchronized (this) {
+            tasks.remove(task.url);
+            tickets = new ArrayList<>(task.tickets);
+            for (Ticket ticket : tickets) {
+                ticket.done = true;
+            }
+        }
+        for (Ticket ticket : tickets) {
+            ticket.deliver(file);
+        }
+    }
+
+    private void cancel(Ticket ticket) {
+        Task task = ticket.task;
+        if (task == null) {
+            return; // Not looked up yet.
+        }
+        task.tickets.remove(ticket);
+        if (task.tickets.isEmpty() && !task.running) {
+            lanes.get(task.priority).remove(task);
+            tasks.remove(task.url);
+        } else {
+            updatePriority(task);
+        }
+    }
+
+    private void updatePriority(Task task) {
+        if (task.running) {
+            return;
+        }
+        Priority highest = Priority.PRELOAD;
+        for (Ticket ticket : task.tickets) {
+            if (ticket.priority.compareTo(highest) < 0) {
+                highest = ticket.priority;
+            }
+        }
+        if (highest != task.priority) {
+            lanes.get(task.priority).remove(task);
+            task.priority = highest;
+            lanes.get(highest).add(task);
+        }
+    }
+
+    private static class Task {
+        final String url;
+        final List<Ticket> tickets = new ArrayList<>();
+        Priority priority;
+        boolean running;
+
+        Task(String url, Priority priority) {
+            this.url = url;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * Handle of a scheduled download. It can be cancelled or moved to another
+     * lane, e.g. when the view it was requested for is recycled.
+     */
+    public class Ticket {
+        private final Action<DownloadProgress> progress;
+        private final Action<File> completion;
+        private Priority priority;
+        private Task task;
+        private boolean done;
+        private volatile boolean cancelled;
+
+        private Ticket(Priority priority, Action<DownloadProgress> progress, Action<File> completion) {
+            this.priority = priority;
+            this.progress = progress;
+            this.completion = completion;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            synchronized (DownloadScheduler.this) {
+                if (!done) {
+                    done = true;
+                    DownloadScheduler.this.cancel(this);
+                }
+            }
+        }
+
+        public void setPriority(Priority priority) {
+            Objects.requireNonNull(priority, "priority");
+            synchronized (DownloadScheduler.this) {
+                this.priority = priority;
+                if (!done && task != null) {
+                    updatePriority(task);
+                }
+            }
+        }
+
+        public boolean isDone() {
+            synchronized (DownloadScheduler.this) {
+                return done;
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void deliverProgress(DownloadProgress p) {
+            if (progress != null && !cancelled) {
+                ActionWrapper.WRAPPER.invoke((value) -> {
+                    if (!cancelled) {
+                        progress.invoke(value);
+                    }
+                }, p);
+            }
+        }
+
+        private void deliver(File file) {
+            if (completion != null) {
+                // Checked again on the receiving thread, the ticket may be
+                // cancelled after the result has been handed over.
+                ActionWrapper.WRAPPER.invoke((f) -> {
+                    if (!cancelled) {
+                        completion.invoke(f);
+                    }
+                }, file);
+            }
+        }
+    }
+}
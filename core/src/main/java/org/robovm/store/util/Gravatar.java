@@ -22,7 +22,7 @@ public class Gravatar {
         return instance;
     }
 
-    private final OkHttpClient client = new OkHttpClient();
+    private final OkHttpClient client = NetworkStack.getInstance().getClient();
 
     public String getUrl(String email, int size, Rating rating) throws UnsupportedEncodingException {
         if (size < 1 || size > 600) {
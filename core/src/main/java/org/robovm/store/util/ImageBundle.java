@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
+/**
+ * Read-only set of images packed into a single data file, shipped with the
+ * app so the catalog can be shown before anything has been downloaded.
+ * <p>
+ * The index is a text file starting with a header line followed by one
+ * {@code offset length url} line per image, the data file holds the images
+ * back to back. Only the index is read when the bundle is opened, the data
+ * file is opened whenever an image is extracted and never needs to be
+ * seekable.
+ */
+public class ImageBundle {
+    public static final String INDEX_FILE = "images.idx";
+    public static final String DATA_FILE = "images.dat";
+    static final String INDEX_HEADER = "org.robovm.store.ImageBundle 1";
+
+    /**
+     * Opens the data file of a bundle, e.g. from the application's assets.
+     */
+    public interface DataSource {
+        InputStream open() throws IOException;
+    }
+
+    private final Map<String, long[]> entries = new HashMap<>();
+    private final DataSource data;
+
+    public ImageBundle(InputStream index, DataSource data) throws IOException {
+        Objects.requireNonNull(index, "index");
+        this.data = Objects.requireNonNull(data, "data");
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(index, "UTF-8"));
+        if (!INDEX_HEADER.equals(reader.readLine())) {
+            throw new IOException("unexpected bundle header");
+        }
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] parts = line.split(" ", 3);
+            if (parts.length == 3) {
+                entries.put(parts[2], new long[] { Long.parseLong(parts[0]), Long.parseLong(parts[1]) });
+            }
+        }
+    }
+
+    /**
+     * Opens the bundle written to {@code directory} by
+     * {@link #write(File, Map)}.
+     */
+    public static ImageBundle open(File directory) throws IOException {
+        File dataFile = new File(directory, DATA_FILE);
+        try (InputStream index = new FileInputStream(new File(directory, INDEX_FILE))) {
+            return new ImageBundle(index, () -> new FileInputStream(dataFile));
+        }
+    }
+
+    public boolean contains(String url) {
+        return entries.containsKey(url);
+    }
+
+    public Set<String> getUrls() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns a stream of the bundled image for {@code url} which must be
+     * closed by the caller, or {@code null} if the bundle doesn't contain it.
+     */
+    public InputStream open(String url) throws IOException {
+        long[] entry = entries.get(url);
+        if (entry == null) {
+            return null;
+        }
+        InputStream in = data.open();
+        try {
+            IOUtils.skipFully(in, entry[0]);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new BoundedInputStream(in, entry[1]);
+    }
+
+    /**
+     * Packs {@code images}, which map URLs to downloaded files, into a bundle
+     * in {@code directory}.
+     */
+    public static void write(File directory, Map<String, File> images) throws IOException {
+        directory.mkdirs();
+        try (OutputStream out = new FileOutputStream(new File(directory, DATA_FILE));
+                Writer index = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(directory,
+                        INDEX_FILE)), "UTF-8"))) {
+            index.write(INDEX_HEADER + "\n");
+            long offset = 0;
+            for (Map.Entry<String, File> image : images.entrySet()) {
+                long length;
+                try (InputStream in = new FileInputStream(image.getValue())) {
+                    length = IOUtils.copyLarge(in, out);
+                }
+                index.write(offset + " " + length + " " + image.getKey() + "\n");
+                offset += length;
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.robovm.store.api.ProductsResponse;
+import org.robovm.store.api.RoboVMWebService;
+import org.robovm.store.model.Product;
+
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+/**
+ * Build-time tool which downloads the images of the current catalog into an
+ * {@link ImageBundle}.
+ * <p>
+ * Usage: {@code ImageBundleBuilder <output directory> [width...]}. Without
+ * widths the original images are bundled, otherwise the variant for each
+ * width as requested by {@link ImageCache#getVariantUrl(String, int)}.
+ */
+public class ImageBundleBuilder {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: ImageBundleBuilder <output directory> [width...]");
+            System.exit(1);
+        }
+        File output = new File(args[0]);
+
+        retrofit.Response<ProductsResponse> response = RoboVMWebService.getInstance().setup().getApi().products()
+                .execute();
+        if (!response.isSuccess() || !response.body().isSuccess()) {
+            throw new IOException("could not load products: " + response.code());
+        }
+
+        Set<String> urls = new LinkedHashSet<>();
+        urls.add(ImageCache.PLACEHOLDER_URL);
+        for (Product product : response.body().getProducts()) {
+            for (String url : product.getImageUrls()) {
+                if (args.length == 1) {
+                    urls.add(url);
+                }
+                for (int i = 1; i < args.length; i++) {
+                    urls.add(ImageCache.getInstance().getVariantUrl(url, Integer.parseInt(args[i])));
+                }
+            }
+        }
+
+        File tmp = Files.createTempDirectory("image-bundle").toFile();
+        try {
+            OkHttpClient client = NetworkStack.getInstance().getClient();
+            Map<String, File> images = new LinkedHashMap<>();
+            for (String url : urls) {
+                Response image = client.newCall(new Request.Builder().url(url).build()).execute();
+                try {
+                    if (!image.isSuccessful()) {
+                        System.err.println("skipping " + url + ": " + image.code());
+                        continue;
+                    }
+                    File file = new File(tmp, String.valueOf(images.size()));
+                    try (InputStream in = image.body().byteStream()) {
+                        FileUtils.copyInputStreamToFile(in, file);
+                    }
+                    images.put(url, file);
+                } finally {
+                    image.body().close();
+                }
+            }
+            ImageBundle.write(output, images);
+            System.out.println("bundled " + images.size() + " images into " + output);
+        } finally {
+            FileUtils.deleteQuietly(tmp);
+        }
+        // The shared client keeps its connections alive.
+        System.exit(0);
+    }
+}
@@ -16,127 +16,885 @@
 package org.robovm.store.util;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
 import org.robovm.store.api.RoboVMWebService.ActionWrapper;
+import org.robovm.store.util.DownloadScheduler.Priority;
 
-import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.CacheControl;
+import com.squareup.okhttp.HttpUrl;
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Response;
 
 public class ImageCache {
-    private static final String PLACEHOLDER_URL = "http://store-app-images.robovm.com/placeholder.jpg";
+    static final String PLACEHOLDER_URL = "http://store-app-images.robovm.com/placeholder.jpg";
+    private static final long DEFAULT_MAX_CACHE_SIZE = 50 * 1024 * 1024; // bytes
+    private static final long DEFAULT_FRESHNESS = TimeUnit.HOURS.toMillis(24);
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "last-modified";
+    static final String WIDTH_PARAMETER = "w";
+    private static final int[] WIDTH_BUCKETS = { 120, 240, 480, 720, 1080, 1440 };
+    private static final int MAX_RESUMES = 3;
+    private static final int INITIAL_CONCURRENCY = 2;
+    private static final int MAX_CONCURRENCY = 8;
 
     private static final ImageCache instance = new ImageCache();
 
-    private ImageCache() {}
+    private ImageCache() {
+        transfers.allowCoreThreadTimeOut(true);
+    }
 
     public static ImageCache getInstance() {
         return instance;
     }
 
     private File saveLocation;
+    private DiskCache diskCache;
+    private long maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+    private Set<String> liveKeys;
+    private Set<String> pinnedKeys = Collections.emptySet();
+
+    private volatile int viewportWidth;
+    private volatile ImageBundle bundle;
+    private volatile ImageDecoder<Object> decoder;
+    private volatile MemoryCache<Object> memoryCache;
 
-    private final OkHttpClient client = new OkHttpClient();
+    private final OkHttpClient client = NetworkStack.getInstance().getClient();
+    private final Map<String, Download> downloads = new HashMap<>();
+    private final NegativeCache negativeCache = new NegativeCache();
+    private final Map<String, MappedImage.Mapping> mappings = new HashMap<>();
+    private final ConcurrencyController concurrency = new ConcurrencyController(INITIAL_CONCURRENCY,
+            MAX_CONCURRENCY);
+    // Transfers wait for the concurrency controller on these threads, no
+    // more than can run against a single host.
+    private final ThreadPoolExecutor transfers = new ThreadPoolExecutor(MAX_CONCURRENCY, MAX_CONCURRENCY, 30,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<>(), (r) -> {
+                Thread t = new Thread(r, "ImageCache transfer");
+                t.setDaemon(true);
+                return t;
+            });
+    private final ExecutorService sweeper = Executors.newSingleThreadExecutor((r) -> {
+        Thread t = new Thread(r, "ImageCache sweeper");
+        t.setDaemon(true);
+        return t;
+    });
 
+    /**
+     * Returns the cached file for {@code url} or {@code null} if it hasn't
+     * been downloaded yet. A stale entry is returned as is and revalidated in
+     * the background.
+     */
     public File getImage(String url) {
-        Objects.requireNonNull(saveLocation, "Must specify a save location!");
+        Objects.requireNonNull(diskCache, "Must specify a save location!");
         Objects.requireNonNull(url, "url");
 
-        File destination = new File(saveLocation, FilenameUtils.getName(url));
-        if (destination.exists()) {
-            return destination;
+        File file = cachedFile(url);
+        if (file != null && isStale(url)) {
+            download(url, null, (f) -> {});
         }
-        return null;
+        return file;
+    }
+
+    /**
+     * Sets the width of the screen in pixels. Images requested through
+     * {@link #getVariantUrl(String)} are sized to fit it.
+     */
+    public void setViewportWidth(int viewportWidth) {
+        this.viewportWidth = viewportWidth;
+    }
+
+    public int getViewportWidth() {
+        return viewportWidth;
+    }
+
+    /**
+     * Returns the URL of the variant of {@code url} sized for the viewport, or
+     * {@code url} itself if no viewport width has been set.
+     */
+    public String getVariantUrl(String url) {
+        int width = viewportWidth;
+        return width > 0 ? getVariantUrl(url, width) : url;
+    }
+
+    /**
+     * Returns the URL of the variant of {@code url} which is at least
+     * {@code width} pixels wide. Widths are rounded up to a few fixed buckets
+     * so that similar requests share one cached file. The image host scales
+     * the image according to the {@code w} query parameter.
+     */
+    public String getVariantUrl(String url, int width) {
+        Objects.requireNonNull(url, "url");
+        HttpUrl parsed = HttpUrl.parse(url);
+        if (parsed == null) {
+            return url;
+        }
+        return parsed.newBuilder().setQueryParameter(WIDTH_PARAMETER, String.valueOf(bucketWidth(width))).build()
+                .toString();
+    }
+
+    static int bucketWidth(int width) {
+        for (int bucket : WIDTH_BUCKETS) {
+            if (width <= bucket) {
+                return bucket;
+            }
+        }
+        return WIDTH_BUCKETS[WIDTH_BUCKETS.length - 1];
+    }
+
+    /**
+     * Mounts {@code bundle} as the bottom tier. Images missing from the disk
+     * cache are copied from the bundle instead of being downloaded, so a
+     * fresh install can show the bundled catalog without any image traffic.
+     * A variant missing from the bundle is served from the closest bundled
+     * variant of the same image.
+     */
+    public void setBundle(ImageBundle bundle) {
+        this.bundle = bundle;
+    }
+
+    public ImageBundle getBundle() {
+        return bundle;
+    }
+
+    /**
+     * Enables the memory tier. Images decoded with {@code decoder} are kept
+     * in memory, evicting the least recently used ones once their total
+     * weight exceeds {@code maxMemorySize} bytes. Setting a decoder of the
+     * same class again, e.g. when an activity is recreated, keeps the images
+     * decoded so far.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> void setDecoder(ImageDecoder<T> decoder, long maxMemorySize) {
+        ImageDecoder<Object> d = (ImageDecoder<Object>) Objects.requireNonNull(decoder, "decoder");
+        if (this.decoder != null && this.decoder.getClass() == d.getClass()) {
+            memoryCache.setMaxWeight(maxMemorySize);
+        } else {
+            this.memoryCache = new MemoryCache<>(maxMemorySize, d::weigh);
+        }
+        this.decoder = d;
     }
 
+    public MemoryCache<?> getMemoryCache() {
+        return memoryCache;
+    }
+
+    /**
+     * Returns the decoded image for {@code url} if it is held in memory.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getMemoryImage(String url) {
+        Objects.requireNonNull(url, "url");
+        MemoryCache<Object> memoryCache = this.memoryCache;
+        return memoryCache != null ? (T) memoryCache.get(url) : null;
+    }
+
+    /**
+     * Returns the decoded image for {@code url} from memory, or decodes it
+     * from disk if it has been downloaded already. Returns {@code null}
+     * otherwise or if no decoder has been set.
+     */
+    public <T> T getDecodedImage(String url) {
+        T image = getMemoryImage(url);
+        if (image != null) {
+            return image;
+        }
+        File file = getImage(url);
+        return file != null ? decodeImage(url, file) : null;
+    }
+
+    /**
+     * Decodes {@code file}, which has been returned for {@code url} by this
+     * cache, and keeps the result in the memory tier.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T decodeImage(String url, File file) {
+        Objects.requireNonNull(url, "url");
+        ImageDecoder<Object> decoder = this.decoder;
+        if (decoder == null || file == null) {
+            return null;
+        }
+        // Every failed URL gets the same placeholder file, decode it only once.
+        String key = file.equals(placeholderFile()) ? PLACEHOLDER_URL : url;
+        Object image = memoryCache.get(key);
+        if (image == null) {
+            image = decoder.decode(file);
+            if (image != null) {
+                memoryCache.put(key, image);
+                ImageInfo info = getImageInfo(key);
+                if (info != null && !info.hasColor()) {
+                    setImageInfo(key, info.withColor(decoder.averageColor(image)));
+                }
+            }
+        }
+        return (T) image;
+    }
+
+    /**
+     * Returns the format, dimensions and, once it has been decoded, the
+     * average color of the cached image for {@code url}, without decoding it.
+     * Returns {@code null} if the image isn't cached or its header couldn't be
+     * read.
+     */
+    public ImageInfo getImageInfo(String url) {
+        Objects.requireNonNull(diskCache, "Must specify a save location!");
+        Objects.requireNonNull(url, "url");
+        String info = diskCache.getInfo(url);
+        return info != null ? ImageInfo.parse(info) : null;
+    }
+
+    private void setImageInfo(String url, ImageInfo info) {
+        if (info != null) {
+            diskCache.setInfo(url, info.encode());
+        }
+    }
+
+    /**
+     * Returns an up to date file for {@code url}, downloading or revalidating
+     * it first if necessary.
+     */
     public File downloadImage(String url) {
-        return downloadImage(url, true);
+        return downloadImageWithProgress(url, null);
+    }
+
+    /**
+     * Like {@link #downloadImage(String)}, but reports the progress of the
+     * transfer, if one is needed, to {@code progress} on the downloading
+     * thread.
+     */
+    public File downloadImageWithProgress(String url, Action<DownloadProgress> progress) {
+        return downloadImageWithProgress(url, progress, false);
+    }
+
+    /**
+     * Like {@link #downloadImageWithProgress(String, Action)} for a caller
+     * which has acquired a transfer to the host of {@code url} from the
+     * {@link #getConcurrencyController() concurrency controller} already. It
+     * is released whether it is needed or not.
+     */
+    File downloadImageWithPermit(String url, Action<DownloadProgress> progress) {
+        return downloadImageWithProgress(url, progress, true);
     }
 
-    private File downloadImage(String url, boolean retryOnFail) {
-        Objects.requireNonNull(saveLocation, "Must specify a save location!");
+    private File downloadImageWithProgress(String url, Action<DownloadProgress> progress, boolean permit) {
+        Objects.requireNonNull(diskCache, "Must specify a save location!");
         Objects.requireNonNull(url, "url");
 
-        File destination = new File(saveLocation, FilenameUtils.getName(url));
-        if (destination.exists()) {
+        File destination = cachedFile(url);
+        if (destination != null && !isStale(url)) {
+            if (permit) {
+                concurrency.cancel(hostOf(url));
+            }
             return destination;
         }
 
-        Request request = new Request.Builder().url(url).build();
+        Download download;
+        boolean owner;
+        synchronized (downloads) {
+            download = downloads.get(url);
+            owner = download == null;
+            if (owner) {
+                download = new Download(url);
+                downloads.put(url, download);
+            }
+            if (progress != null) {
+                download.progressListeners.add(progress);
+            }
+        }
 
-        try {
-            Response response = client.newCall(request).execute();
-            int code = response.code();
-            if (code >= 200 && code < 300) { // Success
-                InputStream in = response.body().byteStream();
-                FileUtils.copyInputStreamToFile(in, destination);
-                return destination;
-            } else if (retryOnFail) { // Error
-                return downloadImage(PLACEHOLDER_URL, false);
+        if (owner) {
+            // The file might have been stored while we were waiting for the lock.
+            File cached = cachedFile(url);
+            File file = cached != null && !isStale(url) ? cached : null;
+            if (file == null && !negativeCache.isBlocked(url)) {
+                file = fetch(download, cached, permit);
+            } else if (permit) {
+                concurrency.cancel(hostOf(url));
             }
-        } catch (IOException e) {
-            System.err.println("file download failed: " + e.getMessage());
-            if (retryOnFail) {
-                return downloadImage(PLACEHOLDER_URL, false);
+            if (file == null) {
+                file = cached;
             }
+            if (file == null && !PLACEHOLDER_URL.equals(url)) {
+                file = downloadImage(PLACEHOLDER_URL);
+            }
+            download.complete(file);
+        } else if (permit) {
+            // Transferred by the owner.
+            concurrency.cancel(hostOf(url));
         }
-        return null;
+        return download.await();
     }
 
     public void downloadImage(String url, Action<File> completion) {
-        downloadImage(url, completion, true);
+        downloadImage(url, null, completion);
     }
 
-    private void downloadImage(String url, Action<File> completion, boolean retryOnFail) {
-        Objects.requireNonNull(saveLocation, "Must specify a save location!");
+    /**
+     * Like {@link #downloadImage(String, Action)}, but also reports the
+     * progress of the transfer, if one is needed, to {@code progress}. Both
+     * are invoked through {@link ActionWrapper}. The download is scheduled
+     * with {@link DownloadScheduler}, which looks up the cache, and copies
+     * bundled images, off the calling thread.
+     */
+    public void downloadImage(String url, Action<DownloadProgress> progress, Action<File> completion) {
+        Objects.requireNonNull(diskCache, "Must specify a save location!");
         Objects.requireNonNull(url, "url");
         Objects.requireNonNull(completion, "completion");
 
-        File destination = new File(saveLocation, FilenameUtils.getName(url));
-        if (destination.exists()) {
-            ActionWrapper.WRAPPER.invoke(completion, destination);
+        DownloadScheduler.getInstance().schedule(url, Priority.VISIBLE, progress, completion);
+    }
+
+    /**
+     * Joins the download of {@code url} which is already in flight or starts
+     * a new one. A stale cached file is revalidated with a conditional
+     * request and returned if that fails. The listeners are called on the
+     * network thread, {@code progress} may be {@code null}.
+     */
+    private void download(String url, Action<DownloadProgress> progress, Action<File> listener) {
+        Download download;
+        synchronized (downloads) {
+            download = downloads.get(url);
+            boolean joined = download != null;
+            if (!joined) {
+                download = new Download(url);
+                downloads.put(url, download);
+            }
+            download.listeners.add(listener);
+            if (progress != null) {
+                download.progressListeners.add(progress);
+            }
+            if (joined) {
+                return;
+            }
+        }
+
+        File cached = cachedFile(url);
+        if (cached != null && !isStale(url)) {
+            download.complete(cached);
+            return;
+        }
+        if (negativeCache.isBlocked(url)) {
+            if (cached != null) {
+                download.complete(cached);
+            } else {
+                fallback(download);
+            }
             return;
         }
 
-        Request request = new Request.Builder().url(url).build();
-
-        client.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onResponse(Response response) throws IOException {
-                int code = response.code();
-                if (code >= 200 && code < 300) { // Success
-                    InputStream in = response.body().byteStream();
-                    FileUtils.copyInputStreamToFile(in, destination);
-                    ActionWrapper.WRAPPER.invoke(completion, destination);
-                } else if (retryOnFail) { // Error
-                    downloadImage(PLACEHOLDER_URL, completion, false);
-                } else {
-                    ActionWrapper.WRAPPER.invoke(completion, null);
+        Download d = download;
+        transfers.execute(() -> {
+            File file = fetch(d, cached, false);
+            if (file != null) {
+                d.complete(file);
+            } else if (cached != null) {
+                d.complete(cached);
+            } else {
+                fallback(d);
+            }
+        });
+    }
+
+    /**
+     * Runs the transfer for {@code download} once the concurrency controller
+     * admits another one to its host, unless {@code acquired} already, and
+     * reports back how it went. Returns {@code null} if it failed.
+     */
+    private File fetch(Download download, File cached, boolean acquired) {
+        String url = download.url;
+        String host = hostOf(url);
+        if (!acquired) {
+            try {
+                concurrency.acquire(host);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        long start = System.nanoTime();
+        long firstByte = 0;
+        File file = null;
+        try {
+            Response response = client.newCall(newRequest(url, cached)).execute();
+            firstByte = System.nanoTime() - start;
+            file = save(download, response, cached);
+        } catch (IOException e) {
+            System.err.println("file download failed: " + e.getMessage());
+            download.timedOut |= e instanceof InterruptedIOException;
+        } finally {
+            concurrency.release(host, file != null ? download.bytesRead : 0, firstByte, System.nanoTime() - start,
+                    download.timedOut);
+        }
+        return file;
+    }
+
+    static String hostOf(String url) {
+        HttpUrl parsed = HttpUrl.parse(url);
+        return parsed != null ? parsed.host() : "";
+    }
+
+    /**
+     * Returns the controller which limits the number of image transfers
+     * running against each host, e.g. to inspect its windows.
+     */
+    public ConcurrencyController getConcurrencyController() {
+        return concurrency;
+    }
+
+    private void fallback(Download download) {
+        if (PLACEHOLDER_URL.equals(download.url)) {
+            download.complete(null);
+        } else {
+            File placeholder = cachedFile(PLACEHOLDER_URL);
+            if (placeholder != null) {
+                download.complete(placeholder);
+            } else {
+                download(PLACEHOLDER_URL, null, download::complete);
+            }
+        }
+    }
+
+    /**
+     * Maps the cached file for {@code url} into memory, or returns a new
+     * handle to an existing mapping of it. Returns {@code null} if the image
+     * isn't cached. The returned handle must be closed by the caller.
+     */
+    public MappedImage mapImage(String url) throws IOException {
+        File file = getImage(url);
+        synchronized (mappings) {
+            MappedImage.Mapping mapping = mappings.get(url);
+            if (file == null) {
+                mappings.remove(url);
+                return null;
+            }
+            if (mapping != null && mapping.file.equals(file)) {
+                MappedImage mapped = mapping.retain();
+                if (mapped != null) {
+                    return mapped;
+                }
+            }
+            try (FileChannel channel = new FileInputStream(file).getChannel()) {
+                mapping = new MappedImage.Mapping(url, file, channel.map(MapMode.READ_ONLY, 0, channel.size()),
+                        this::unmapped);
+            }
+            mappings.put(url, mapping);
+            return mapping.retain();
+        }
+    }
+
+    private void unmapped(MappedImage.Mapping mapping) {
+        synchronized (mappings) {
+            if (mappings.get(mapping.url) == mapping) {
+                mappings.remove(mapping.url);
+            }
+        }
+    }
+
+    /**
+     * Returns the tracker of failed downloads, e.g. to report failures per
+     * host.
+     */
+    public NegativeCache getNegativeCache() {
+        return negativeCache;
+    }
+
+    /**
+     * Returns the cached file for {@code url}, copying it from the bundle
+     * into the disk cache if necessary.
+     */
+    private File cachedFile(String url) {
+        File file = diskCache.get(url);
+        ImageBundle bundle = this.bundle;
+        if (file != null || bundle == null) {
+            return file;
+        }
+        String bundled = bundledUrl(bundle, url);
+        if (bundled == null) {
+            return null;
+        }
+        ImageHeaderParser parser = new ImageHeaderParser();
+        try (InputStream in = bundle.open(bundled)) {
+            file = diskCache.put(url, parser.wrap(in), System.currentTimeMillis() + DEFAULT_FRESHNESS, null);
+            setImageInfo(url, parser.getInfo());
+            return file;
+        } catch (IOException e) {
+            System.err.println("could not read bundled image: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the bundled URL to serve {@code url} from: the URL itself, or
+     * for a variant the smallest larger bundled variant, the largest smaller
+     * one or the original image, in that order.
+     */
+    private static String bundledUrl(ImageBundle bundle, String url) {
+        if (bundle.contains(url)) {
+            return url;
+        }
+        HttpUrl parsed = HttpUrl.parse(url);
+        String width = parsed != null ? parsed.queryParameter(WIDTH_PARAMETER) : null;
+        if (width == null) {
+            return null;
+        }
+        String original = parsed.newBuilder().removeAllQueryParameters(WIDTH_PARAMETER).build().toString();
+        int requested;
+        try {
+            requested = Integer.parseInt(width);
+        } catch (NumberFormatException e) {
+            return bundle.contains(original) ? original : null;
+        }
+        String smaller = null;
+        for (int bucket : WIDTH_BUCKETS) {
+            String variant = parsed.newBuilder().setQueryParameter(WIDTH_PARAMETER, String.valueOf(bucket)).build()
+                    .toString();
+            if (bundle.contains(variant)) {
+                if (bucket >= requested) {
+                    return variant;
                 }
+                smaller = variant;
+            }
+        }
+        if (smaller != null) {
+            return smaller;
+        }
+        return bundle.contains(original) ? original : null;
+    }
+
+    private File placeholderFile() {
+        return diskCache.fileFor(DiskCache.keyFor(PLACEHOLDER_URL));
+    }
+
+    private boolean isStale(String url) {
+        return diskCache.getExpires(url) <= System.currentTimeMillis();
+    }
+
+    private Request newRequest(String url, File cached) {
+        // Images are compressed already and byte ranges must refer to the
+        // stored bytes, not to a gzipped transfer.
+        Request.Builder builder = new Request.Builder().url(url).header("Accept-Encoding", "identity");
+        long staged = diskCache.getStagedLength(url);
+        if (staged > 0) {
+            String validator = rangeValidator(diskCache.getStagedValidators(url));
+            if (validator != null) {
+                // Continue an interrupted transfer, unless the image has changed since.
+                builder.header("Range", "bytes=" + staged + "-");
+                builder.header("If-Range", validator);
+            }
+        }
+        if (cached != null) {
+            Properties validators = diskCache.getValidators(url);
+            String etag = validators.getProperty(ETAG);
+            String lastModified = validators.getProperty(LAST_MODIFIED);
+            if (etag != null) {
+                builder.header("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                builder.header("If-Modified-Since", lastModified);
             }
+        }
+        return builder.build();
+    }
 
-            @Override
-            public void onFailure(Request request, IOException e) {
+    /**
+     * Stores the body of a successful response, or refreshes the cached file
+     * if the server answered that it is still valid. A transfer which fails
+     * after some of the body has been staged is resumed right away. Returns
+     * {@code null} if the response was an error.
+     */
+    private File save(Download download, Response response, File cached) {
+        String url = download.url;
+        for (int resumes = 0;; resumes++) {
+            long staged = diskCache.getStagedLength(url);
+            try {
+                return store(download, response, cached);
+            } catch (IOException e) {
                 System.err.println("file download failed: " + e.getMessage());
-                if (retryOnFail) {
-                    downloadImage(PLACEHOLDER_URL, completion, false);
-                } else {
-                    ActionWrapper.WRAPPER.invoke(completion, null);
+                download.timedOut |= e instanceof InterruptedIOException;
+            } finally {
+                try {
+                    response.body().close();
+                } catch (IOException ignored) {}
+            }
+            if (resumes == MAX_RESUMES || diskCache.getStagedLength(url) == staged) {
+                break; // Not getting anywhere.
+            }
+            try {
+                response = client.newCall(newRequest(url, cached)).execute();
+            } catch (IOException e) {
+                System.err.println("file download failed: " + e.getMessage());
+                download.timedOut |= e instanceof InterruptedIOException;
+                break;
+            }
+        }
+        return null;
+    }
+
+    private File store(Download download, Response response, File cached) throws IOException {
+        String url = download.url;
+        int code = response.code();
+        if (code == 304 && cached != null) { // Not modified
+            negativeCache.recordSuccess(url);
+            diskCache.refresh(url, expiresAt(response), validators(response));
+            return cached;
+        } else if (code < 200 || code >= 300) {
+            if (NegativeCache.isDefinitive(code)) {
+                negativeCache.recordFailure(url);
+            }
+            throw new IOException("unexpected response code " + code);
+        }
+
+        ImageHeaderParser parser = new ImageHeaderParser();
+        long offset = 0;
+        if (code == 206) { // Partial content
+            offset = diskCache.getStagedLength(url);
+            if (!continuesStaged(response, offset, diskCache.getStagedValidators(url))) {
+                diskCache.discardStaged(url);
+                throw new IOException("partial content doesn't match the staged download");
+            }
+            // The header has been staged already.
+            try (InputStream in = new FileInputStream(diskCache.stagedFileFor(DiskCache.keyFor(url)))) {
+                byte[] buffer = new byte[4096];
+                int n;
+                while (!parser.isDone() && (n = in.read(buffer)) > 0) {
+                    parser.update(buffer, 0, n);
                 }
             }
-        });
+        }
+        InputStream in = parser.wrap(response.body().byteStream());
+        long bodyLength = response.body().contentLength();
+        long contentLength = bodyLength >= 0 ? offset + bodyLength : -1;
+        File file = diskCache.putResumable(url, in, offset, expiresAt(response), validators(response),
+                (partial, written) -> download.progress(new DownloadProgress(url, partial, written,
+                        contentLength)));
+        negativeCache.recordSuccess(url);
+        setImageInfo(url, parser.getInfo());
+        MemoryCache<Object> memoryCache = this.memoryCache;
+        if (memoryCache != null) {
+            memoryCache.remove(url); // Decoded from the old content.
+        }
+        synchronized (mappings) {
+            mappings.remove(url); // Existing handles keep the old content.
+        }
+        return file;
+    }
+
+    /**
+     * Returns the validator to send with {@code If-Range}: a strong entity
+     * tag or else the modification date, {@code null} if there is neither.
+     */
+    private static String rangeValidator(Properties validators) {
+        String etag = validators.getProperty(ETAG);
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return validators.getProperty(LAST_MODIFIED);
     }
 
-    public void setSaveLocation(String saveLocation) {
-        this.saveLocation = new File(saveLocation);
+    /**
+     * Checks that a partial response starts where the staged bytes end and
+     * belongs to the same version of the image.
+     */
+    private static boolean continuesStaged(Response response, long offset, Properties staged) {
+        String range = response.header("Content-Range");
+        if (offset == 0 || range == null || !range.startsWith("bytes " + offset + "-")) {
+            return false;
+        }
+        String etag = staged.getProperty(ETAG);
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag.equals(response.header("ETag"));
+        }
+        String lastModified = staged.getProperty(LAST_MODIFIED);
+        return lastModified != null && lastModified.equals(response.header("Last-Modified"));
+    }
+
+    private static long expiresAt(Response response) {
+        long now = System.currentTimeMillis();
+        CacheControl cacheControl = response.cacheControl();
+        if (cacheControl.noCache() || cacheControl.noStore()) {
+            return now;
+        }
+        if (cacheControl.maxAgeSeconds() >= 0) {
+            return now + TimeUnit.SECONDS.toMillis(cacheControl.maxAgeSeconds());
+        }
+        Date expires = response.headers().getDate("Expires");
+        if (expires != null) {
+            return expires.getTime();
+        }
+        return now + DEFAULT_FRESHNESS;
+    }
+
+    private static Properties validators(Response response) {
+        Properties validators = new Properties();
+        String etag = response.header("ETag");
+        String lastModified = response.header("Last-Modified");
+        if (etag != null) {
+            validators.setProperty(ETAG, etag);
+        }
+        if (lastModified != null) {
+            validators.setProperty(LAST_MODIFIED, lastModified);
+        }
+        return validators.isEmpty() ? null : validators;
+    }
+
+    public synchronized void setSaveLocation(String saveLocation) {
+        File location = new File(saveLocation);
+        if (location.equals(this.saveLocation)) {
+            // E.g. when the activity is recreated on rotation.
+            return;
+        }
+        if (diskCache != null) {
+            try {
+                diskCache.close();
+            } catch (IOException e) {
+                System.err.println("could not close cache: " + e.getMessage());
+            }
+        }
+        this.saveLocation = location;
+        this.diskCache = new DiskCache(location, maxCacheSize);
+        diskCache.setPinnedKeys(pinnedKeys);
+        if (liveKeys != null) {
+            diskCache.setLiveKeys(liveKeys);
+            sweep(diskCache);
+        }
     }
 
     public File getSaveLocation() {
         return saveLocation;
     }
+
+    /**
+     * Sets the maximum number of bytes the cached images may occupy on disk.
+     * Least recently used images are evicted once the limit is exceeded.
+     */
+    public void setMaxCacheSize(long maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+        if (diskCache != null) {
+            diskCache.setMaxSize(maxCacheSize);
+        }
+    }
+
+    public long getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * Sets the images referenced by the current catalog. Cached images, in
+     * any size, of products which are no longer in it are evicted before any
+     * other ones and removed by a sweep in the background.
+     */
+    public synchronized void setLiveUrls(Collection<String> urls) {
+        liveKeys = keysFor(urls);
+        liveKeys.add(DiskCache.keyFor(PLACEHOLDER_URL));
+        if (diskCache != null) {
+            diskCache.setLiveKeys(liveKeys);
+            sweep(diskCache);
+        }
+    }
+
+    /**
+     * Sets the images which must stay cached in any size, e.g. those of the
+     * orders in the basket.
+     */
+    public synchronized void setPinnedUrls(Collection<String> urls) {
+        pinnedKeys = keysFor(urls);
+        if (diskCache != null) {
+            diskCache.setPinnedKeys(pinnedKeys);
+        }
+    }
+
+    private void sweep(DiskCache diskCache) {
+        sweeper.execute(diskCache::sweep);
+    }
+
+    private Set<String> keysFor(Collection<String> urls) {
+        Set<String> keys = new HashSet<>();
+        for (String url : urls) {
+            keys.add(DiskCache.keyFor(url));
+            if (HttpUrl.parse(url) != null) {
+                for (int bucket : WIDTH_BUCKETS) {
+                    keys.add(DiskCache.keyFor(getVariantUrl(url, bucket)));
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * A single network transfer shared by every caller asking for the same
+     * URL while it is in flight.
+     */
+    private class Download {
+        final String url;
+        final List<Action<File>> listeners = new ArrayList<>();
+        final List<Action<DownloadProgress>> progressListeners = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        File result;
+        volatile long bytesRead;
+        volatile boolean timedOut;
+
+        Download(String url) {
+            this.url = url;
+        }
+
+        void complete(File file) {
+            List<Action<File>> waiting;
+            synchronized (downloads) {
+                downloads.remove(url);
+                result = file;
+                waiting = new ArrayList<>(listeners);
+            }
+            done.countDown();
+            for (Action<File> listener : waiting) {
+                listener.invoke(file);
+            }
+        }
+
+        void progress(DownloadProgress progress) {
+            bytesRead = progress.getBytesRead();
+            List<Action<DownloadProgress>> listening;
+            synchronized (downloads) {
+                if (progressListeners.isEmpty()) {
+                    return;
+                }
+                listening = new ArrayList<>(progressListeners);
+            }
+            for (Action<DownloadProgress> listener : listening) {
+                listener.invoke(progress);
+            }
+        }
+
+        File await() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            synchronized (downloads) {
+                return result;
+            }
+        }
+    }
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import java.io.File;
+
+/**
+ * Turns a cached image file into the platform's image type. Implementations
+ * are plugged into {@link ImageCache#setDecoder(ImageDecoder, long)} and may
+ * be called from any thread.
+ */
+public interface ImageDecoder<T> {
+    /**
+     * Decodes the file, returns {@code null} if it isn't a valid image.
+     */
+    T decode(File file);
+
+    /**
+     * Returns the approximate number of bytes the decoded image occupies in
+     * memory.
+     */
+    long weigh(T image);
+
+    /**
+     * Returns the average color of the image as ARGB, which is painted while
+     * the image is loaded the next time.
+     */
+    int averageColor(T image);
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.robovm.store.util.ImageInfo.Format;
+
+/**
+ * Reads the format and dimensions of a JPEG or PNG image from its first
+ * bytes as they are fed in, without buffering the image. For JPEG the
+ * segments preceding the frame header, e.g. EXIF data, are skipped.
+ */
+public class ImageHeaderParser {
+    private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    // Signature, IHDR chunk length and type, width and height.
+    private static final int PNG_HEADER_LENGTH = 24;
+
+    private enum State {
+        SIGNATURE, PNG, JPEG_MARKER_PREFIX, JPEG_MARKER, JPEG_LENGTH, JPEG_SKIP, JPEG_FRAME, DONE
+    }
+
+    private State state = State.SIGNATURE;
+    private final byte[] header = new byte[PNG_HEADER_LENGTH];
+    private int position;
+    private int marker;
+    private int value;
+    private int count;
+    private long skip;
+    private ImageInfo info;
+
+    /**
+     * Feeds the next {@code length} bytes of the image. Returns {@code true}
+     * once no more bytes are needed.
+     */
+    public boolean update(byte[] b, int offset, int length) {
+        int end = offset + length;
+        while (offset < end && state != State.DONE) {
+            if (state == State.JPEG_SKIP) {
+                int n = (int) Math.min(skip, end - offset);
+                offset += n;
+                skip -= n;
+                if (skip == 0) {
+                    state = State.JPEG_MARKER_PREFIX;
+                }
+            } else {
+                update(b[offset++] & 0xFF);
+            }
+        }
+        return state == State.DONE;
+    }
+
+    public boolean isDone() {
+        return state == State.DONE;
+    }
+
+    /**
+     * Returns the parsed header, or {@code null} if it hasn't been read yet or
+     * the image is neither a JPEG nor a PNG.
+     */
+    public ImageInfo getInfo() {
+        return info;
+    }
+
+    /**
+     * Returns a stream which feeds the bytes read through it to this parser.
+     */
+    public InputStream wrap(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0 && !isDone()) {
+                    update(new byte[] { (byte) b }, 0, 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0 && !isDone()) {
+                    update(b, off, n);
+                }
+                return n;
+            }
+        };
+    }
+
+    private void update(int b) {
+        switch (state) {
+        case SIGNATURE:
+            header[position++] = (byte) b;
+            if ((header[0] & 0xFF) == 0xFF) {
+                // JPEG start of image marker.
+                if (position == 2) {
+                    state = b == 0xD8 ? State.JPEG_MARKER_PREFIX : State.DONE;
+                }
+            } else if (header[position - 1] != PNG_SIGNATURE[position - 1]) {
+                state = State.DONE;
+            } else if (position == PNG_SIGNATURE.length) {
+                state = State.PNG;
+            }
+            break;
+        case PNG:
+            header[position++] = (byte) b;
+            if (position == PNG_HEADER_LENGTH) {
+                info = new ImageInfo(Format.PNG, readInt(header, 16), readInt(header, 20));
+                state = State.DONE;
+            }
+            break;
+        case JPEG_MARKER_PREFIX:
+            state = b == 0xFF ? State.JPEG_MARKER : State.DONE;
+            break;
+        case JPEG_MARKER:
+            if (b == 0xFF) {
+                break; // Fill byte.
+            }
+            marker = b;
+            if (b == 0xD9 || b == 0xDA) {
+                state = State.DONE; // End of image or start of scan without a frame header.
+            } else if (b == 0x01 || b >= 0xD0 && b <= 0xD8) {
+                state = State.JPEG_MARKER_PREFIX; // No payload.
+            } else {
+                state = State.JPEG_LENGTH;
+                value = 0;
+                count = 0;
+            }
+            break;
+        case JPEG_LENGTH:
+            value = value << 8 | b;
+            if (++count == 2) {
+                if (isStartOfFrame(marker)) {
+                    state = State.JPEG_FRAME;
+                    count = 0;
+                } else {
+                    skip = value - 2;
+                    state = skip > 0 ? State.JPEG_SKIP : State.JPEG_MARKER_PREFIX;
+                }
+            }
+            break;
+        case JPEG_FRAME:
+            // Precision, height and width.
+            header[count++] = (byte) b;
+            if (count == 5) {
+                int height = (header[1] & 0xFF) << 8 | header[2] & 0xFF;
+                int width = (header[3] & 0xFF) << 8 | header[4] & 0xFF;
+                info = new ImageInfo(Format.JPEG, width, height);
+                state = State.DONE;
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        // SOF0-SOF15 except DHT (C4), JPG (C8) and DAC (CC).
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return (b[offset] & 0xFF) << 24 | (b[offset + 1] & 0xFF) << 16 | (b[offset + 2] & 0xFF) << 8
+                | b[offset + 3] & 0xFF;
+    }
+}
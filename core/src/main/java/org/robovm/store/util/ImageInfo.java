@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+/**
+ * What is known about a cached image without decoding it: its format and
+ * dimensions, read from its header while it was downloaded, and its average
+ * color once it has been decoded for the first time.
+ */
+public class ImageInfo {
+    public enum Format {
+        JPEG, PNG
+    }
+
+    private final Format format;
+    private final int width;
+    private final int height;
+    private final int color;
+
+    public ImageInfo(Format format, int width, int height) {
+        this(format, width, height, 0);
+    }
+
+    /**
+     * @param color the average color as ARGB, {@code 0} if it isn't known
+     */
+    public ImageInfo(Format format, int width, int height, int color) {
+        this.format = Objects.requireNonNull(format, "format");
+        this.width = width;
+        this.height = height;
+        this.color = color;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getColor() {
+        return color;
+    }
+
+    public boolean hasColor() {
+        return color != 0;
+    }
+
+    public ImageInfo withColor(int color) {
+        return new ImageInfo(format, width, height, color);
+    }
+
+    /**
+     * Returns the single line representation read by {@link #parse(String)}.
+     */
+    String encode() {
+        return format + " " + width + " " + height + " " + Integer.toHexString(color);
+    }
+
+    /**
+     * Parses a line written by {@link #encode()}, returns {@code null} if it
+     * is malformed.
+     */
+    static ImageInfo parse(String s) {
+        String[] parts = s.split(" ");
+        if (parts.length != 4) {
+            return null;
+        }
+        try {
+            return new ImageInfo(Format.valueOf(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                    (int) Long.parseLong(parts[3], 16));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ImageInfo[format=%s, width=%d, height=%d, color=#%08x]", format, width, height,
+                color);
+    }
+}
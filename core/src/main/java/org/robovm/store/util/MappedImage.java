@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Handle to a read-only memory mapping of a cached image. Obtain one with
+ * {@link ImageCache#mapImage(String)}; callers asking for the same image
+ * share the mapping, which is reference counted, but each gets its own
+ * handle. Every handle must be {@link #close() closed} once it is no longer
+ * needed, closing it again does nothing.
+ */
+public class MappedImage implements Closeable {
+    private final Mapping mapping;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    MappedImage(Mapping mapping) {
+        this.mapping = mapping;
+    }
+
+    public String getUrl() {
+        return mapping.url;
+    }
+
+    Mapping getMapping() {
+        return mapping;
+    }
+
+    /**
+     * Returns a read-only view of the image bytes with its own position and
+     * limit. No bytes are copied.
+     */
+    public ByteBuffer getBuffer() {
+        if (closed.get()) {
+            throw new IllegalStateException("Mapping of " + mapping.url + " has been closed");
+        }
+        return mapping.buffer.asReadOnlyBuffer();
+    }
+
+    public int size() {
+        return mapping.buffer.capacity();
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            mapping.release();
+        }
+    }
+
+    /**
+     * The mapping shared by the handles to one image.
+     */
+    static class Mapping {
+        final String url;
+        final File file;
+        final MappedByteBuffer buffer;
+        private final Action<Mapping> onRelease;
+        private int refCount;
+        private boolean released;
+
+        Mapping(String url, File file, MappedByteBuffer buffer, Action<Mapping> onRelease) {
+            this.url = url;
+            this.file = file;
+            this.buffer = buffer;
+            this.onRelease = onRelease;
+        }
+
+        /**
+         * Returns a new handle, or {@code null} if the mapping has already
+         * been released.
+         */
+        synchronized MappedImage retain() {
+            if (released) {
+                return null;
+            }
+            refCount++;
+            return new MappedImage(this);
+        }
+
+        void release() {
+            boolean last;
+            synchronized (this) {
+                last = --refCount == 0;
+                released = last;
+            }
+            if (last) {
+                onRelease.invoke(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory LRU cache bounded by the total weight of its values rather than
+ * their number, so a few large images can't push out many small ones
+ * unnoticed and vice versa.
+ */
+public class MemoryCache<T> {
+    public interface Weigher<T> {
+        long weigh(T value);
+    }
+
+    private final Map<String, T> map = new LinkedHashMap<>(16, 0.75f, true);
+    private final Weigher<T> weigher;
+    private long maxWeight;
+    private long weight;
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    public MemoryCache(long maxWeight, Weigher<T> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = Objects.requireNonNull(weigher, "weigher");
+    }
+
+    public synchronized T get(String key) {
+        T value = map.get(key);
+        if (value != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return value;
+    }
+
+    public synchronized T put(String key, T value) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(value, "value");
+
+        T old = map.put(key, value);
+        if (old != null) {
+            weight -= weigher.weigh(old);
+        }
+        weight += weigher.weigh(value);
+        trimToWeight();
+        return old;
+    }
+
+    public synchronized T remove(String key) {
+        T old = map.remove(key);
+        if (old != null) {
+            weight -= weigher.weigh(old);
+        }
+        return old;
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        weight = 0;
+    }
+
+    public synchronized void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        trimToWeight();
+    }
+
+    public synchronized long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    private void trimToWeight() {
+        Iterator<T> it = map.values().iterator();
+        while (weight > maxWeight && it.hasNext()) {
+            T eldest = it.next();
+            it.remove();
+            weight -= weigher.weigh(eldest);
+            evictionCount++;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accesses = hitCount + missCount;
+        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("MemoryCache[weight=%d/%d, hits=%d, misses=%d, hitRate=%d%%]", weight, maxWeight,
+                hitCount, missCount, hitPercent);
+    }
+}
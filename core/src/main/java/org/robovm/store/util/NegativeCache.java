@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.squareup.okhttp.HttpUrl;
+
+/**
+ * Remembers URLs which the server has definitively refused, see
+ * {@link #isDefinitive(int)}, so they aren't requested again on every bind.
+ * Failures of the network aren't recorded, the images are there once it is
+ * back. A URL is blocked for a period which doubles with every consecutive
+ * failure, from {@link #MIN_BACKOFF} up to {@link #MAX_BACKOFF}. A successful
+ * download forgets the URL, and so does a failure which has expired for
+ * longer than {@link #MAX_BACKOFF}.
+ */
+public class NegativeCache {
+    static final long MIN_BACKOFF = TimeUnit.SECONDS.toMillis(30);
+    static final long MAX_BACKOFF = TimeUnit.HOURS.toMillis(1);
+
+    private final Map<String, Failure> failures = new HashMap<>();
+    private final Map<String, Integer> failuresByHost = new HashMap<>();
+
+    /**
+     * Returns {@code true} if {@code url} failed recently and shouldn't be
+     * requested yet.
+     */
+    public synchronized boolean isBlocked(String url) {
+        Failure failure = failures.get(url);
+        return failure != null && failure.retryAt > now();
+    }
+
+    /**
+     * Returns whether a response with {@code code} means the image won't be
+     * there if it is requested again soon.
+     */
+    public static boolean isDefinitive(int code) {
+        return code == 404 || code == 410;
+    }
+
+    public synchronized void recordFailure(String url) {
+        evictExpired(url);
+        Failure failure = failures.get(url);
+        if (failure == null) {
+            failure = new Failure();
+            failures.put(url, failure);
+        }
+        failure.count++;
+        long backoff = MIN_BACKOFF << Math.min(failure.count - 1, 30);
+        failure.retryAt = now() + Math.min(backoff, MAX_BACKOFF);
+
+        String host = hostOf(url);
+        Integer count = failuresByHost.get(host);
+        failuresByHost.put(host, count == null ? 1 : count + 1);
+    }
+
+    public synchronized void recordSuccess(String url) {
+        failures.remove(url);
+    }
+
+    /**
+     * Returns the number of failed downloads per host, for the hosts which
+     * have URLs that are still remembered.
+     */
+    public synchronized Map<String, Integer> getFailuresByHost() {
+        return new TreeMap<>(failuresByHost);
+    }
+
+    /**
+     * Returns the number of URLs which are currently blocked.
+     */
+    public synchronized int getBlockedCount() {
+        long now = now();
+        int count = 0;
+        for (Failure failure : failures.values()) {
+            if (failure.retryAt > now) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized void clear() {
+        failures.clear();
+        failuresByHost.clear();
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Forgets the failures other than that of {@code url} which have expired
+     * long enough ago that another one wouldn't count as consecutive, and
+     * the hosts which have none left.
+     */
+    private void evictExpired(String url) {
+        long now = now();
+        Set<String> hosts = new HashSet<>();
+        for (Iterator<Map.Entry<String, Failure>> it = failures.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Failure> entry = it.next();
+            if (!entry.getKey().equals(url) && now - entry.getValue().retryAt >= MAX_BACKOFF) {
+                it.remove();
+            } else {
+                hosts.add(hostOf(entry.getKey()));
+            }
+        }
+        hosts.add(hostOf(url));
+        failuresByHost.keySet().retainAll(hosts);
+    }
+
+    private static String hostOf(String url) {
+        HttpUrl parsed = HttpUrl.parse(url);
+        return parsed != null ? parsed.host() : url;
+    }
+
+    private static class Failure {
+        int count;
+        long retryAt;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Dispatcher;
+import com.squareup.okhttp.OkHttpClient;
+
+/**
+ * The HTTP client shared by {@link ImageCache}, {@link Gravatar} and the
+ * Retrofit API, so that they use one connection pool and one dispatcher and
+ * don't repeat TLS handshakes to the same hosts.
+ */
+public class NetworkStack {
+    private static final int DEFAULT_MAX_REQUESTS = 16;
+    private static final int DEFAULT_MAX_REQUESTS_PER_HOST = 4;
+    private static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    private static final long DEFAULT_KEEP_ALIVE = TimeUnit.MINUTES.toMillis(5);
+    private static final long DEFAULT_CONNECT_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    private static final long DEFAULT_READ_TIMEOUT = TimeUnit.SECONDS.toMillis(20);
+    private static final long DEFAULT_WRITE_TIMEOUT = TimeUnit.SECONDS.toMillis(20);
+
+    private static final NetworkStack instance = new NetworkStack();
+
+    public static NetworkStack getInstance() {
+        return instance;
+    }
+
+    private final OkHttpClient client = new OkHttpClient();
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private NetworkStack() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(DEFAULT_MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(DEFAULT_MAX_REQUESTS_PER_HOST);
+        client.setDispatcher(dispatcher);
+        client.setConnectionPool(new ConnectionPool(DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_KEEP_ALIVE));
+        setTimeouts(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_WRITE_TIMEOUT, TimeUnit.MILLISECONDS);
+        client.networkInterceptors().add((chain) -> {
+            requestCount.incrementAndGet();
+            return chain.proceed(chain.request());
+        });
+    }
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Limits the number of asynchronous calls executed at the same time, in
+     * total and per host. Further calls are queued.
+     */
+    public void setMaxRequests(int maxRequests, int maxRequestsPerHost) {
+        client.getDispatcher().setMaxRequests(maxRequests);
+        client.getDispatcher().setMaxRequestsPerHost(maxRequestsPerHost);
+    }
+
+    /**
+     * Replaces the connection pool. Idle connections above
+     * {@code maxIdleConnections} or idle for longer than {@code keepAlive}
+     * are closed.
+     */
+    public void setConnectionPool(int maxIdleConnections, long keepAlive, TimeUnit unit) {
+        ConnectionPool old = client.getConnectionPool();
+        client.setConnectionPool(new ConnectionPool(maxIdleConnections, unit.toMillis(keepAlive)));
+        if (old != null) {
+            old.evictAll();
+        }
+    }
+
+    public void setTimeouts(long connect, long read, long write, TimeUnit unit) {
+        client.setConnectTimeout(connect, unit);
+        client.setReadTimeout(read, unit);
+        client.setWriteTimeout(write, unit);
+    }
+
+    public Stats getStats() {
+        ConnectionPool pool = client.getConnectionPool();
+        Dispatcher dispatcher = client.getDispatcher();
+        return new Stats(pool.getConnectionCount(), pool.getHttpConnectionCount(),
+                pool.getMultiplexedConnectionCount(), dispatcher.getRunningCallCount(),
+                dispatcher.getQueuedCallCount(), requestCount.get());
+    }
+
+    /**
+     * Snapshot of the connection pool and dispatcher state.
+     */
+    public static class Stats {
+        private final int connectionCount;
+        private final int httpConnectionCount;
+        private final int multiplexedConnectionCount;
+        private final int runningCallCount;
+        private final int queuedCallCount;
+        private final long requestCount;
+
+        Stats(int connectionCount, int httpConnectionCount, int multiplexedConnectionCount,
+                int runningCallCount, int queuedCallCount, long requestCount) {
+            this.connectionCount = connectionCount;
+            this.httpConnectionCount = httpConnectionCount;
+            this.multiplexedConnectionCount = multiplexedConnectionCount;
+            this.runningCallCount = runningCallCount;
+            this.queuedCallCount = queuedCallCount;
+            this.requestCount = requestCount;
+        }
+
+        public int getConnectionCount() {
+            return connectionCount;
+        }
+
+        public int getHttpConnectionCount() {
+            return httpConnectionCount;
+        }
+
+        public int getMultiplexedConnectionCount() {
+            return multiplexedConnectionCount;
+        }
+
+        public int getRunningCallCount() {
+            return runningCallCount;
+        }
+
+        public int getQueuedCallCount() {
+            return queuedCallCount;
+        }
+
+        /**
+         * Returns the number of requests sent over the network since start up.
+         */
+        public long getRequestCount() {
+            return requestCount;
+        }
+
+        @Override
+        public String toString() {
+            return "connections=" + connectionCount + " (http=" + httpConnectionCount + ", multiplexed="
+                    + multiplexedConnectionCount + "), running=" + runningCallCount + ", queued="
+                    + queuedCallCount + ", requests=" + requestCount;
+        }
+    }
+}
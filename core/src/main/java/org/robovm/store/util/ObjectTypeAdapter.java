@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Base of the hand-written Gson adapters for JSON objects, which read and
+ * write the fields of a class without reflection. The values are collected
+ * first and passed to {@link #create(Fields)}, so the class can keep its
+ * fields final. Unknown properties are skipped and {@code null} properties
+ * are treated like absent ones, as Gson does. Fields which are {@code null}
+ * aren't written unless the writer serializes nulls.
+ */
+public abstract class ObjectTypeAdapter<T> extends TypeAdapter<T> {
+    /**
+     * Returned by {@link #readValue(JsonReader, String)} for a property the
+     * class has no field for.
+     */
+    protected static final Object UNKNOWN = new Object();
+
+    /**
+     * Reads the value of the property {@code name}. Returns {@link #UNKNOWN}
+     * if there is no such field, the value is skipped then.
+     */
+    protected abstract Object readValue(JsonReader in, String name) throws IOException;
+
+    /**
+     * Creates the object from the values read, absent ones are {@code null}.
+     */
+    protected abstract T create(Fields fields);
+
+    protected abstract void writeFields(JsonWriter out, T object) throws IOException;
+
+    @Override
+    public T read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Fields fields = new Fields();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            Object value;
+            try {
+                value = readValue(in, name);
+            } catch (NumberFormatException e) {
+                // Like Gson's own number adapters.
+                throw new JsonSyntaxException(name, e);
+            }
+            if (value == UNKNOWN) {
+                in.skipValue();
+            } else {
+                fields.put(name, value);
+            }
+        }
+        in.endObject();
+        return create(fields);
+    }
+
+    @Override
+    public void write(JsonWriter out, T object) throws IOException {
+        if (object == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        writeFields(out, object);
+        out.endObject();
+    }
+
+    /**
+     * The values read for one object. Objects have few fields, they are
+     * looked up by scanning.
+     */
+    public static final class Fields {
+        private String[] names = new String[8];
+        private Object[] values = new Object[8];
+        private int size;
+
+        void put(String name, Object value) {
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            names[size] = name;
+            values[size++] = value;
+        }
+
+        /**
+         * Returns the value of {@code name}, the last one if it has been
+         * given more than once, or {@code null} if it is absent.
+         */
+        @SuppressWarnings("unchecked")
+        public <V> V get(String name) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (names[i].equals(name)) {
+                    return (V) values[i];
+                }
+            }
+            return null;
+        }
+
+        public boolean getBoolean(String name) {
+            Boolean value = get(name);
+            return value != null && value;
+        }
+
+        public double getDouble(String name) {
+            Double value = get(name);
+            return value != null ? value : 0;
+        }
+    }
+
+    public static <E> List<E> readList(JsonReader in, TypeAdapter<E> adapter) throws IOException {
+        List<E> list = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            list.add(adapter.read(in));
+        }
+        in.endArray();
+        return list;
+    }
+
+    public static <E> void writeList(JsonWriter out, List<E> list, TypeAdapter<E> adapter) throws IOException {
+        if (list == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (E e : list) {
+            adapter.write(out, e);
+        }
+        out.endArray();
+    }
+
+    public static List<String> readStrings(JsonReader in) throws IOException {
+        List<String> list = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                list.add(null);
+            } else {
+                list.add(in.nextString());
+            }
+        }
+        in.endArray();
+        return list;
+    }
+
+    public static void writeStrings(JsonWriter out, List<String> list) throws IOException {
+        if (list == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (String s : list) {
+            out.value(s);
+        }
+        out.endArray();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.robovm.store.model.Basket;
+import org.robovm.store.model.Order;
+import org.robovm.store.model.Product;
+import org.robovm.store.model.User;
+
+import com.google.gson.Gson;
+
+public class ApiTypeAdaptersTest {
+    private final Gson reflective = new Gson();
+    private final Gson adapters = ApiTypeAdapters.createGson();
+
+    /**
+     * Returns a {@code /products} response with {@code count} products the
+     * size of those in the store, with some properties the app doesn't know.
+     */
+    static String productsJson(int count) {
+        StringBuilder sb = new StringBuilder("{\"success\":true,\"version\":\"7\",\"products\":[");
+        for (int i = 0; i < count; i++) {
+            sb.append(i > 0 ? "," : "")
+                    .append("{\"id\":\"").append(i).append("\",\"name\":\"T-shirt ").append(i)
+                    .append("\",\"description\":\"A shirt made of \\\"100%\\\" cotton.\",\"price\":")
+                    .append(i % 3 == 0 ? "0" : "12.5").append(",\"type\":\"TShirt\",\"featured\":{\"rank\":")
+                    .append(i).append("},\"colors\":[");
+            for (String color : new String[] { "Green", "Blue", "Black" }) {
+                sb.append(color.equals("Green") ? "" : ",").append("{\"name\":\"").append(color)
+                        .append("\",\"imageUrls\":[\"https://images.example.com/").append(i).append('-')
+                        .append(color).append("-front.png\",\"https://images.example.com/").append(i)
+                        .append('-').append(color).append("-back.png\"]}");
+            }
+            sb.append("],\"sizes\":[{\"id\":\"S\",\"name\":\"Small\"},{\"id\":\"M\",\"name\":\"Medium\"},"
+                    + "{\"id\":\"L\",\"name\":\"Large\"}],\"notes\":null}");
+        }
+        return sb.append("]}").toString();
+    }
+
+    @Test
+    public void shouldReadAndWriteProductsLikeReflection() {
+        String json = productsJson(5);
+        ProductsResponse expected = reflective.fromJson(json, ProductsResponse.class);
+        ProductsResponse actual = adapters.fromJson(json, ProductsResponse.class);
+
+        assertEquals(reflective.toJson(expected), adapters.toJson(actual));
+        assertEquals(reflective.toJson(expected), reflective.toJson(actual));
+        assertEquals(5, actual.getProducts().size());
+        assertEquals("7", actual.getVersion());
+        assertEquals(12.5, actual.getProducts().get(1).getPrice(), 0);
+    }
+
+    @Test
+    public void shouldReadAndWriteResponsesLikeReflection() {
+        String[] responses = {
+                "{\"success\":false,\"errors\":[{\"field\":\"zipCode\",\"message\":\"Required\"},{\"message\":\"x\"}]}",
+                "{\"success\":true,\"authToken\":\"abc\"}",
+                "{\"success\":true,\"version\":\"3\",\"changed\":[{\"id\":\"1\",\"name\":\"Mug\",\"price\":\"4\"}],"
+                        + "\"removed\":[\"2\"]}" };
+        Class<?>[] types = { APIResponse.class, AuthResponse.class, ProductsDeltaResponse.class };
+        for (int i = 0; i < responses.length; i++) {
+            assertEquals(reflective.toJson(reflective.fromJson(responses[i], types[i])),
+                    adapters.toJson(adapters.fromJson(responses[i], types[i])));
+        }
+        assertNull(adapters.fromJson("null", ProductsResponse.class));
+    }
+
+    @Test
+    public void shouldWriteRequestsLikeReflection() {
+        Product product = adapters.fromJson(productsJson(1), ProductsResponse.class).getProducts().get(0);
+        Basket basket = new Basket();
+        basket.add(new Order(product));
+        basket.add(new Order(product, product.getSizes().get(2), product.getColors().get(1)));
+        User user = new User();
+        user.setFirstName("Jane");
+        user.setCountry("SE");
+        OrderRequest order = new OrderRequest(new AuthToken("token"), user, basket);
+        AuthRequest auth = new AuthRequest("jane", "secret");
+
+        assertEquals(reflective.toJson(order), adapters.toJson(order));
+        assertEquals(reflective.toJson(auth), adapters.toJson(auth));
+        assertEquals(adapters.toJson(order), adapters.toJson(adapters.fromJson(adapters.toJson(order),
+                OrderRequest.class)));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AuthTokenTest {
+    @Test
+    public void shouldTellExpiryWithoutCallbacks() {
+        assertFalse(new AuthToken("token").isExpired());
+        assertFalse(new AuthToken("token").needsRefresh());
+        assertTrue(new AuthToken("token", 0, 0, null, null).isExpired());
+    }
+
+    @Test
+    public void shouldRefreshBeforeExpiringOnSharedTimer() throws InterruptedException {
+        List<AuthToken> tokens = new ArrayList<>();
+        CountDownLatch refreshed = new CountDownLatch(10);
+        CountDownLatch expired = new CountDownLatch(10);
+        List<Boolean> expiredWhenRefreshed = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            AuthToken[] token = new AuthToken[1];
+            token[0] = new AuthToken("token" + i, 300,
+                    200, () -> {
+                        synchronized (expiredWhenRefreshed) {
+                            expiredWhenRefreshed.add(token[0].isExpired());
+                        }
+                        refreshed.countDown();
+                    }, expired::countDown);
+            tokens.add(token[0]);
+        }
+        int timers = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().equals("AuthToken timer")) {
+                timers++;
+            }
+        }
+        assertEquals(1, timers);
+
+        assertTrue(refreshed.await(5, TimeUnit.SECONDS));
+        assertFalse(expiredWhenRefreshed.contains(true));
+        assertTrue(tokens.get(0).needsRefresh());
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        assertTrue(tokens.get(0).isExpired());
+    }
+
+    @Test
+    public void shouldNotCallBackOnceCancelled() throws InterruptedException {
+        CountDownLatch called = new CountDownLatch(1);
+        AuthToken token = new AuthToken("token", 50, 0, called::countDown,
+                called::countDown);
+        token.cancel();
+        assertFalse(called.await(200, TimeUnit.MILLISECONDS));
+        assertTrue(token.isExpired());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.api;
+
+import com.squareup.okhttp.HttpUrl;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+/**
+ * Serves a catalog of numbered products from {@code /products} the way the
+ * store server does, paged if an offset and limit are given and as the
+ * changes since a version if one is given. A page is sent with an ETag
+ * which changes with its products and the size of the catalog, and isn't
+ * sent again while it matches {@code If-None-Match}.
+ */
+class CatalogDispatcher extends Dispatcher {
+    private final int size;
+    private final boolean paging;
+    private final boolean deltas;
+    private final String[] names;
+    // The version each product was last changed in.
+    private final int[] changed;
+    private int version = 1;
+    private int notModified;
+
+    /**
+     * @param paging whether to honor offset and limit, like a server which
+     *            doesn't page if {@code false}
+     */
+    CatalogDispatcher(int size, boolean paging) {
+        this(size, paging, true);
+    }
+
+    /**
+     * @param deltas whether to send the changes since a version, like a
+     *            server which can't tell them if {@code false}
+     */
+    CatalogDispatcher(int size, boolean paging, boolean deltas) {
+        this.size = size;
+        this.paging = paging;
+        this.deltas = deltas;
+        this.names = new String[size];
+        this.changed = new int[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = "T-shirt " + i;
+        }
+    }
+
+    /**
+     * Renames product {@code i} in a new version of the catalog.
+     */
+    synchronized void rename(int i, String name) {
+        names[i] = name;
+        changed[i] = ++version;
+    }
+
+    /**
+     * Returns the number of pages which weren't sent again because they
+     * matched their ETag.
+     */
+    synchronized int getNotModifiedCount() {
+        return notModified;
+    }
+
+    @Override
+    public synchronized MockResponse dispatch(RecordedRequest request) {
+        HttpUrl url = HttpUrl.parse("http://localhost" + request.getPath());
+        if (!url.encodedPath().endsWith("/products")) {
+            return new MockResponse().setResponseCode(404);
+        }
+        if (url.queryParameter("since") != null) {
+            return delta(url.queryParameter("since"));
+        }
+        int offset = 0;
+        int limit = size;
+        boolean paged = paging && url.queryParameter("offset") != null;
+        String etag = null;
+        if (paged) {
+            offset = Math.min(size, Integer.parseInt(url.queryParameter("offset")));
+            limit = Math.max(0, Integer.parseInt(url.queryParameter("limit")));
+            int pageVersion = 0;
+            for (int i = offset; i < Math.min(size, offset + limit); i++) {
+                pageVersion = Math.max(pageVersion, changed[i]);
+            }
+            etag = "\"" + offset + "-" + limit + "-" + size + "-" + pageVersion + "\"";
+            if (etag.equals(request.getHeader("If-None-Match"))) {
+                notModified++;
+                return new MockResponse().setResponseCode(304).setHeader("ETag", etag);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder("{\"success\":true,\"products\":[");
+        for (int i = offset; i < Math.min(size, offset + limit); i++) {
+            sb.append(i > offset ? "," : "").append(product(i));
+        }
+        sb.append("]");
+        if (paged) {
+            sb.append(",\"total\":").append(size);
+        }
+        sb.append(",\"version\":\"").append(version).append("\"");
+        MockResponse response = new MockResponse().setBody(sb.append("}").toString());
+        return etag != null ? response.setHeader("ETag", etag) : response;
+    }
+
+    private MockResponse delta(String since) {
+        int from;
+        try {
+            from = Integer.parseInt(since);
+        } catch (NumberFormatException e) {
+            from = -1;
+        }
+        if (!deltas || from < 1 || from > version) {
+            return new MockResponse().setBody("{\"success\":false}");
+        }
+        StringBuilder sb = new StringBuilder("{\"success\":true,\"version\":\"" + version + "\",\"changed\":[");
+        String separator = "";
+        for (int i = 0; i < size; i++) {
+            if (changed[i] > from) {
+                sb.append(separator).append(product(i));
+                separator = ",";
+            }
+        }
+        return new MockResponse().setBody(sb.append("],\"removed\":[]}").toString());
+    }
+
+    private String product(int i) {
+        return "{\"id\":\"shirt" + i + "\",\"name\":\"" + names[i] + "\",\"price\":0,\"colors\":[{\"name\":"
+                + "\"Navy\",\"imageUrls\":[\"http://localhost/shirt" + i + ".png\"]}]}";
+    }
+}
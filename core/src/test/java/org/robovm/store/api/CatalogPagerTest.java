@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.robovm.store.model.Product;
+import org.robovm.store.util.ImageCache;
+
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+public class CatalogPagerTest {
+    @Rule
+    public MockWebServer server = new MockWebServer();
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setup() {
+        // For the images prefetched with each page.
+        ImageCache.getInstance().setSaveLocation(folder.getRoot().getAbsolutePath());
+    }
+
+    @Test
+    public void shouldLoadPagesAroundVisibleRange() throws InterruptedException {
+        server.setDispatcher(new CatalogDispatcher(100, true));
+        CatalogPager pager = new CatalogPager(api(), null, false, 10, 1, null);
+        BlockingQueue<CatalogPager> changes = new LinkedBlockingQueue<>();
+        pager.setOnChangeListener(changes::add);
+        assertEquals(0, pager.getCount());
+
+        pager.setVisibleRange(0, 3);
+        awaitChanges(changes, 2);
+        assertEquals(100, pager.getCount());
+        assertEquals("T-shirt 15", pager.get(15).getName());
+        assertNull(pager.get(20));
+        assertEquals(2, server.getRequestCount());
+
+        pager.setVisibleRange(50, 53);
+        awaitChanges(changes, 3);
+        assertNotNull(pager.get(40));
+        assertEquals("T-shirt 69", pager.get(69).getName());
+        // Too far away from the visible range.
+        assertNull(pager.get(5));
+        assertEquals(5, server.getRequestCount());
+    }
+
+    @Test
+    public void shouldLoadWholeCatalogOfServerWhichDoesNotPage() throws InterruptedException {
+        server.setDispatcher(new CatalogDispatcher(30, false));
+        BlockingQueue<ProductsResponse> catalogs = new LinkedBlockingQueue<>();
+        CatalogPager pager = new CatalogPager(api(), null, false, 10, 0,
+                (page, response, etag) -> catalogs.add(response));
+
+        pager.setVisibleRange(0, 3);
+        List<Product> catalog = catalogs.poll(5, TimeUnit.SECONDS).getProducts();
+        assertEquals(30, catalog.size());
+        assertEquals(30, pager.getCount());
+        assertEquals("T-shirt 29", pager.get(29).getName());
+
+        // Nothing left to load.
+        pager.setVisibleRange(20, 29);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    private RoboVMWebService.RoboVMAPI api() {
+        return RoboVMWebService.getInstance().setup(server.url("/").toString()).getApi();
+    }
+
+    private static void awaitChanges(BlockingQueue<CatalogPager> changes, int count) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            assertNotNull(changes.poll(5, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.robovm.store.api.QueuedOrder.Status;
+import org.robovm.store.model.Basket;
+import org.robovm.store.model.User;
+
+import com.google.gson.Gson;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.ResponseBody;
+
+import retrofit.Response;
+
+public class OrderQueueTest {
+    private static final long BACKOFF = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Gson gson = ApiTypeAdapters.createGson();
+
+    private static OrderRequest request(String firstName) {
+        User user = new User();
+        user.setFirstName(firstName);
+        return new OrderRequest(new AuthToken("token"), user, new Basket());
+    }
+
+    private static QueuedOrder poll(BlockingQueue<QueuedOrder> queue) throws InterruptedException {
+        QueuedOrder order = queue.poll(5, TimeUnit.SECONDS);
+        if (order == null) {
+            throw new AssertionError("timed out");
+        }
+        return order;
+    }
+
+    @Test
+    public void shouldRetryWithBackoffUntilPlaced() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        Set<String> ids = Collections.synchronizedSet(new HashSet<String>());
+        OrderQueue queue = new OrderQueue(folder.getRoot(), (id, request) -> {
+            ids.add(id);
+            if (attempts.incrementAndGet() < 3) {
+                throw new IOException("offline");
+            }
+            return Response.success(new APIResponse(true, null));
+        }, gson, BACKOFF);
+        BlockingQueue<QueuedOrder> done = new LinkedBlockingQueue<>();
+        queue.addOnStatusChangeListener((order) -> {
+            if (order.isDone()) {
+                done.add(order);
+            }
+        });
+
+        BlockingQueue<QueuedOrder> first = new LinkedBlockingQueue<>();
+        queue.add(request("Jane"), first::add);
+        QueuedOrder order = poll(first);
+        assertEquals(Status.QUEUED, order.getStatus());
+        assertTrue(order.isDeferred());
+
+        order = poll(done);
+        assertEquals(Status.PLACED, order.getStatus());
+        assertEquals(3, order.getAttempts());
+        assertEquals(Collections.singleton(order.getId()), ids);
+        assertTrue(queue.getOrders().isEmpty());
+        queue.close();
+    }
+
+    @Test
+    public void shouldResumeOrdersFromJournal() throws Exception {
+        OrderQueue offline = new OrderQueue(folder.getRoot(), (id, request) -> {
+            throw new IOException("offline");
+        }, gson, BACKOFF);
+        BlockingQueue<QueuedOrder> first = new LinkedBlockingQueue<>();
+        offline.add(request("Jane"), first::add);
+        offline.add(request("John"), first::add);
+        poll(first);
+        poll(first);
+        offline.close();
+
+        BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+        BlockingQueue<QueuedOrder> done = new LinkedBlockingQueue<>();
+        OrderQueue online = new OrderQueue(folder.getRoot(), (id, request) -> {
+            sent.add(request.firstName);
+            return Response.success(new APIResponse(true, null));
+        }, gson, BACKOFF);
+        assertEquals(2, online.getOrders().size());
+        online.addOnStatusChangeListener((order) -> {
+            if (order.isDone()) {
+                done.add(order);
+            }
+        });
+        online.retry();
+        for (int i = 0; i < 2; i++) {
+            QueuedOrder order = poll(done);
+            assertEquals(Status.PLACED, order.getStatus());
+            assertTrue(order.isDeferred());
+        }
+        assertEquals("Jane", sent.poll());
+        assertEquals("John", sent.poll());
+        online.close();
+
+        OrderQueue reopened = new OrderQueue(folder.getRoot(), (id, request) -> {
+            throw new AssertionError("sent twice");
+        }, gson, BACKOFF);
+        assertTrue(reopened.getOrders().isEmpty());
+        reopened.close();
+    }
+
+    @Test
+    public void shouldKeepOrdersWaitingForLoginAcrossRestart() throws Exception {
+        AtomicReference<String> token = new AtomicReference<>("expired");
+        BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+        OrderQueue.Sender sender = (id, request) -> {
+            // Like RoboVMWebService, which attaches the token it has now.
+            OrderRequest withToken = request.withAuthToken(token.get());
+            sent.add(withToken.authToken);
+            if (!"fresh".equals(withToken.authToken)) {
+                return Response.error(403, ResponseBody.create(MediaType.parse("text/plain"), "forbidden"));
+            }
+            return Response.success(new APIResponse(true, null));
+        };
+        OrderQueue queue = new OrderQueue(folder.getRoot(), sender, gson, BACKOFF);
+        BlockingQueue<QueuedOrder> first = new LinkedBlockingQueue<>();
+        queue.add(request("Jane"), first::add);
+        assertEquals(Status.QUEUED, poll(first).getStatus());
+        assertEquals("expired", sent.poll());
+        queue.close();
+
+        String journal = FileUtils.readFileToString(new File(folder.getRoot(), OrderQueue.JOURNAL_FILE), "UTF-8");
+        assertTrue(journal.contains("Jane"));
+        assertFalse(journal.contains("authToken"));
+
+        OrderQueue restarted = new OrderQueue(folder.getRoot(), sender, gson, BACKOFF);
+        BlockingQueue<QueuedOrder> updates = new LinkedBlockingQueue<>();
+        restarted.addOnStatusChangeListener(updates::add);
+        restarted.retry();
+        assertEquals(Status.SENDING, poll(updates).getStatus());
+        assertEquals(Status.QUEUED, poll(updates).getStatus());
+        assertEquals("expired", sent.poll());
+        // Not sent again until the user has logged in.
+        Thread.sleep(BACKOFF * 5);
+        assertTrue(updates.isEmpty());
+        assertEquals(1, restarted.getOrders().size());
+
+        token.set("fresh");
+        restarted.retry();
+        QueuedOrder order;
+        while (!(order = poll(updates)).isDone()) {
+            continue;
+        }
+        assertEquals(Status.PLACED, order.getStatus());
+        assertEquals("fresh", sent.poll());
+        restarted.close();
+
+        OrderQueue reopened = new OrderQueue(folder.getRoot(), sender, gson, BACKOFF);
+        assertTrue(reopened.getOrders().isEmpty());
+        reopened.close();
+    }
+
+    @Test
+    public void shouldNotRetryRejectedOrders() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        OrderQueue queue = new OrderQueue(null, (id, request) -> {
+            if (attempts.incrementAndGet() == 1) {
+                return Response.success(new APIResponse(false, null));
+            }
+            return Response.error(400, ResponseBody.create(MediaType.parse("text/plain"), "bad request"));
+        }, gson, BACKOFF);
+        BlockingQueue<QueuedOrder> first = new LinkedBlockingQueue<>();
+        queue.add(request("Jane"), first::add);
+        queue.add(request("John"), first::add);
+
+        QueuedOrder order = poll(first);
+        assertEquals(Status.REJECTED, order.getStatus());
+        assertFalse(order.isDeferred());
+        assertFalse(order.getResponse().isSuccess());
+        assertEquals(Status.REJECTED, poll(first).getStatus());
+        assertEquals(2, attempts.get());
+        queue.close();
+    }
+
+    @Test
+    public void shouldGrowBackoffWithJitterUpToMaximum() {
+        OrderQueue queue = new OrderQueue(null, (id, request) -> null, gson);
+        long previousMax = 0;
+        for (int attempts = 1; attempts < 30; attempts++) {
+            long backoff = queue.backoff(attempts);
+            long max = Math.min(TimeUnit.MINUTES.toMillis(5), TimeUnit.SECONDS.toMillis(2) << attempts - 1);
+            assertTrue(backoff >= max / 2 && backoff <= max);
+            assertTrue(max >= previousMax);
+            previousMax = max;
+        }
+        List<QueuedOrder> orders = queue.getOrders();
+        assertTrue(orders.isEmpty());
+        queue.close();
+    }
+
+    @Test
+    public void shouldKeepJournalInSaveLocation() {
+        new OrderQueue(folder.getRoot(), (id, request) -> null, gson).close();
+        assertTrue(new File(folder.getRoot(), OrderQueue.JOURNAL_FILE).exists());
+    }
+}
@@ -15,20 +15,32 @@
  */
 package org.robovm.store.api;
 
+import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.CoreMatchers.hasItems;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.startsWith;
 import static org.hamcrest.Matchers.hasProperty;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.robovm.store.api.RoboVMWebService.RoboVMAPI;
 import org.robovm.store.model.Basket;
 import org.robovm.store.model.Order;
@@ -37,11 +49,22 @@ import org.robovm.store.model.ProductColor;
 import org.robovm.store.model.ProductSize;
 import org.robovm.store.model.ProductType;
 import org.robovm.store.model.User;
+import org.robovm.store.util.Action;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
 
 import retrofit.Call;
 import retrofit.Response;
 
 public class RoboVMWebServiceTest {
+    @Rule
+    public MockWebServer server = new MockWebServer();
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private RoboVMAPI api;
 
     @Before
@@ -148,4 +171,272 @@ public class RoboVMWebServiceTest {
                 || (orderResponse.getErrors().size() == 1 && orderResponse.getErrors().get(0).getMessage()
                         .equals("No more t-shirts for you!")));
     }
+
+    @Test
+    public void shouldServeStoredCatalogAndNotifyWhenItChanges() throws InterruptedException {
+        RoboVMWebService service = RoboVMWebService.getInstance().setup(server.url("/").toString());
+        server.enqueue(new MockResponse().setBody(catalog("Java T-shirt")));
+        server.enqueue(new MockResponse().setBody(catalog("RoboVM T-shirt")));
+
+        BlockingQueue<List<Product>> results = new LinkedBlockingQueue<>();
+        service.setSaveLocation(folder.getRoot().getAbsolutePath());
+        service.getProducts(results::add);
+        assertEquals("Java T-shirt", results.poll(5, TimeUnit.SECONDS).get(0).getName());
+
+        // Next start.
+        BlockingQueue<CatalogChange> changes = new LinkedBlockingQueue<>();
+        Action<CatalogChange> listener = changes::add;
+        service.addOnCatalogChangeListener(listener);
+        try {
+            service.load();
+            service.getProducts(results::add);
+            assertEquals("Java T-shirt", results.poll().get(0).getName());
+            CatalogChange change = changes.poll(5, TimeUnit.SECONDS);
+            assertEquals("RoboVM T-shirt", change.getProducts().get(0).getName());
+            assertFalse(change.isInPlace());
+            assertNull(results.poll());
+
+            service.getProducts(results::add);
+            assertEquals("RoboVM T-shirt", results.poll().get(0).getName());
+            assertEquals(2, server.getRequestCount());
+        } finally {
+            service.removeOnCatalogChangeListener(listener);
+        }
+    }
+
+    @Test
+    public void shouldApplyCatalogChangesSinceStoredVersion() throws InterruptedException {
+        CatalogDispatcher dispatcher = new CatalogDispatcher(5, true);
+        server.setDispatcher(dispatcher);
+        RoboVMWebService service = RoboVMWebService.getInstance().setup(server.url("/").toString());
+
+        BlockingQueue<List<Product>> results = new LinkedBlockingQueue<>();
+        service.setSaveLocation(folder.getRoot().getAbsolutePath());
+        service.getProducts(results::add);
+        assertEquals(5, results.poll(5, TimeUnit.SECONDS).size());
+        assertEquals("/products?offset=0&limit=20", server.takeRequest().getPath());
+
+        dispatcher.rename(3, "RoboVM T-shirt");
+        // Next start.
+        BlockingQueue<CatalogChange> changes = new LinkedBlockingQueue<>();
+        Action<CatalogChange> listener = changes::add;
+        service.addOnCatalogChangeListener(listener);
+        try {
+            service.load();
+            service.getProducts(results::add);
+            assertEquals("T-shirt 3", results.poll().get(3).getName());
+
+            CatalogChange change = changes.poll(5, TimeUnit.SECONDS);
+            assertEquals(Arrays.asList(3), change.getChangedPositions());
+            assertEquals("RoboVM T-shirt", change.getProducts().get(3).getName());
+            assertEquals("T-shirt 4", change.getProducts().get(4).getName());
+            assertEquals("/products?since=1", server.takeRequest().getPath());
+        } finally {
+            service.removeOnCatalogChangeListener(listener);
+        }
+
+        // The merged catalog has been stored with its version.
+        service.load();
+        service.getProducts(results::add);
+        assertEquals("RoboVM T-shirt", results.poll().get(3).getName());
+        assertEquals("/products?since=2", server.takeRequest(5, TimeUnit.SECONDS).getPath());
+    }
+
+    @Test
+    public void shouldRevalidateStoredCatalogOfPagerWithChangesSince() throws InterruptedException {
+        CatalogDispatcher dispatcher = new CatalogDispatcher(100, true);
+        server.setDispatcher(dispatcher);
+        RoboVMWebService service = RoboVMWebService.getInstance().setup(server.url("/").toString());
+        service.setSaveLocation(folder.getRoot().getAbsolutePath());
+        BlockingQueue<List<Product>> results = new LinkedBlockingQueue<>();
+        service.getProducts(results::add);
+        assertEquals(100, results.poll(5, TimeUnit.SECONDS).size());
+        for (int i = server.getRequestCount(); i > 0; i--) {
+            assertThat(server.takeRequest().getPath(), startsWith("/products?offset="));
+        }
+
+        dispatcher.rename(42, "RoboVM T-shirt");
+        // Next start.
+        BlockingQueue<CatalogChange> changes = new LinkedBlockingQueue<>();
+        Action<CatalogChange> listener = changes::add;
+        service.addOnCatalogChangeListener(listener);
+        try {
+            service.load();
+            CatalogPager pager = service.newCatalogPager();
+            assertEquals("T-shirt 42", pager.get(42).getName());
+
+            CatalogChange change = changes.poll(5, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertTrue(change.isInPlace());
+            assertEquals(Arrays.asList(42), change.getChangedPositions());
+            pager.replace(change.getChangedPositions(), change.getProducts());
+            assertEquals("RoboVM T-shirt", pager.get(42).getName());
+            assertEquals("/products?since=1", server.takeRequest().getPath());
+        } finally {
+            service.removeOnCatalogChangeListener(listener);
+        }
+    }
+
+    @Test
+    public void shouldKeepStateWhenSaveLocationIsSetAgain() throws InterruptedException {
+        RoboVMWebService service = RoboVMWebService.getInstance().setup(server.url("/").toString());
+        server.enqueue(new MockResponse().setBody(catalog("Java T-shirt")));
+        service.setSaveLocation(folder.getRoot().getAbsolutePath());
+        BlockingQueue<List<Product>> results = new LinkedBlockingQueue<>();
+        service.getProducts(results::add);
+        assertEquals("Java T-shirt", results.poll(5, TimeUnit.SECONDS).get(0).getName());
+        OrderQueue queue = service.getOrderQueue();
+
+        // The activity has been recreated.
+        service.setSaveLocation(folder.getRoot().getAbsolutePath());
+        assertSame(queue, service.getOrderQueue());
+        service.getProducts(results::add);
+        assertEquals("Java T-shirt", results.poll().get(0).getName());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void shouldLoadWholeCatalogPageByPageWhilePagerShowsWindow() throws InterruptedException {
+        CatalogDispatcher dispatcher = new CatalogDispatcher(500, true);
+        server.setDispatcher(dispatcher);
+        RoboVMWebService service = RoboVMWebService.getInstance().setup(server.url("/").toString());
+        service.setSaveLocation(folder.getRoot().getAbsolutePath());
+
+        CatalogPager pager = service.newCatalogPager();
+        BlockingQueue<CatalogPager> changes = new LinkedBlockingQueue<>();
+        pager.setOnChangeListener(changes::add);
+        pager.setVisibleRange(0, 3);
+        assertNotNull(changes.poll(5, TimeUnit.SECONDS));
+        assertEquals(500, pager.getCount());
+
+        BlockingQueue<List<Product>> results = new LinkedBlockingQueue<>();
+        service.getProducts(results::add);
+        assertEquals(500, results.poll(5, TimeUnit.SECONDS).size());
+        List<String> paths = new ArrayList<>();
+        List<String> firstPageTags = new ArrayList<>();
+        for (int i = server.getRequestCount(); i > 0; i--) {
+            RecordedRequest request = server.takeRequest();
+            paths.add(request.getPath());
+            if (request.getPath().equals("/products?offset=0&limit=20")) {
+                firstPageTags.add(request.getHeader("If-None-Match"));
+            }
+        }
+        assertThat(paths, not(hasItem("/products")));
+        assertThat(paths, hasItems("/products?offset=0&limit=20", "/products?offset=480&limit=20"));
+        // The page the pager loaded isn't sent again.
+        assertEquals(2, firstPageTags.size());
+        assertNull(firstPageTags.get(0));
+        assertNotNull(firstPageTags.get(1));
+        assertTrue(dispatcher.getNotModifiedCount() >= 1);
+
+        // Stored for the next start.
+        service.load();
+        assertEquals(500, service.getCatalog().size());
+    }
+
+    @Test
+    public void shouldRevalidateStoredCatalogPageByPage() throws InterruptedException {
+        CatalogDispatcher dispatcher = new CatalogDispatcher(100, true, false);
+        server.setDispatcher(dispatcher);
+        RoboVMWebService service = RoboVMWebService.getInstance().setup(server.url("/").toString());
+        service.setSaveLocation(folder.getRoot().getAbsolutePath());
+        BlockingQueue<List<Product>> results = new LinkedBlockingQueue<>();
+        service.getProducts(results::add);
+        assertEquals(100, results.poll(5, TimeUnit.SECONDS).size());
+        for (int i = server.getRequestCount(); i > 0; i--) {
+            assertNull(server.takeRequest().getHeader("If-None-Match"));
+        }
+
+        dispatcher.rename(42, "RoboVM T-shirt");
+        // Next start.
+        BlockingQueue<CatalogChange> changes = new LinkedBlockingQueue<>();
+        Action<CatalogChange> listener = changes::add;
+        service.addOnCatalogChangeListener(listener);
+        try {
+            service.load();
+            service.getProducts(results::add);
+            assertEquals("T-shirt 42", results.poll().get(42).getName());
+
+            CatalogChange change = changes.poll(5, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertTrue(change.isInPlace());
+            assertEquals(Arrays.asList(42), change.getChangedPositions());
+            assertEquals("RoboVM T-shirt", change.getProducts().get(42).getName());
+            assertEquals("/products?since=1", server.takeRequest().getPath());
+            for (int page = 0; page < 5; page++) {
+                RecordedRequest request = server.takeRequest();
+                assertEquals("/products?offset=" + page * 20 + "&limit=20", request.getPath());
+                assertNotNull(request.getHeader("If-None-Match"));
+            }
+            // Only the page with the renamed product has been sent again.
+            assertEquals(4, dispatcher.getNotModifiedCount());
+        } finally {
+            service.removeOnCatalogChangeListener(listener);
+        }
+    }
+
+    @Test
+    public void shouldShareCatalogRequestInFlight() throws InterruptedException {
+        RoboVMWebService service = RoboVMWebService.getInstance().setup(server.url("/").toString());
+        server.enqueue(new MockResponse().setBody(catalog("Java T-shirt")).setBodyDelay(200, TimeUnit.MILLISECONDS));
+        service.setSaveLocation(folder.getRoot().getAbsolutePath());
+        int deduplicated = service.getDeduplicatedProductCalls();
+
+        BlockingQueue<List<Product>> results = new LinkedBlockingQueue<>();
+        for (int i = 0; i < 3; i++) {
+            service.getProducts(results::add);
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals("Java T-shirt", results.poll(5, TimeUnit.SECONDS).get(0).getName());
+        }
+        assertEquals(1, server.getRequestCount());
+        assertEquals(deduplicated + 2, service.getDeduplicatedProductCalls());
+    }
+
+    @Test
+    public void shouldSendOrderPlacedWhileLoggedOutOnceLoggedIn() throws InterruptedException {
+        RoboVMWebService service = RoboVMWebService.getInstance().setup(server.url("/").toString());
+        BlockingQueue<String> orderKeys = new LinkedBlockingQueue<>();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String body = request.getBody().readUtf8();
+                if (request.getPath().endsWith("/auth")) {
+                    return new MockResponse().setBody("{\"success\":true,\"authToken\":\"fresh\"}");
+                } else if (!body.contains("\"authToken\":\"fresh\"")) {
+                    return new MockResponse().setResponseCode(401);
+                }
+                orderKeys.add(request.getHeader("Idempotency-Key"));
+                return new MockResponse().setBody("{\"success\":true}");
+            }
+        });
+        service.setSaveLocation(folder.getRoot().getAbsolutePath());
+        assertFalse(service.isAuthenticated());
+
+        BlockingQueue<QueuedOrder> first = new LinkedBlockingQueue<>();
+        BlockingQueue<QueuedOrder> deferred = new LinkedBlockingQueue<>();
+        Action<QueuedOrder> listener = deferred::add;
+        service.addOnDeferredOrderListener(listener);
+        try {
+            QueuedOrder order = service.placeOrder(new User(), first::add);
+            assertEquals(QueuedOrder.Status.QUEUED, first.poll(5, TimeUnit.SECONDS).getStatus());
+
+            service.authenticate("jane", "secret", (success) -> {});
+            QueuedOrder placed = deferred.poll(5, TimeUnit.SECONDS);
+            assertEquals(QueuedOrder.Status.PLACED, placed.getStatus());
+            assertEquals(order.getId(), orderKeys.poll());
+        } finally {
+            service.removeOnDeferredOrderListener(listener);
+        }
+    }
+
+    private static String catalog(String... names) {
+        StringBuilder sb = new StringBuilder("{\"success\":true,\"products\":[");
+        for (int i = 0; i < names.length; i++) {
+            sb.append(i > 0 ? "," : "").append("{\"id\":\"shirt").append(i).append("\",\"name\":\"")
+                    .append(names[i]).append("\",\"price\":0,\"colors\":[{\"name\":\"Navy\",")
+                    .append("\"imageUrls\":[\"http://localhost/shirt").append(i).append(".png\"]}]}");
+        }
+        return sb.append("]}").toString();
+    }
 }
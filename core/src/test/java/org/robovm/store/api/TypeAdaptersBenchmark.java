@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.api;
+
+import com.google.gson.Gson;
+
+/**
+ * Compares the throughput of parsing and serializing a {@code /products}
+ * response with {@link ApiTypeAdapters} against Gson's reflective adapters.
+ * <p>
+ * Usage: {@code TypeAdaptersBenchmark [products] [seconds]}. Run it on the
+ * device for numbers which reflect the AOT compiled app, the JVM only
+ * shows the trend.
+ */
+public class TypeAdaptersBenchmark {
+    public static void main(String[] args) {
+        int products = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 2;
+        String json = ApiTypeAdaptersTest.productsJson(products);
+        Gson reflective = new Gson();
+        Gson adapters = ApiTypeAdapters.createGson();
+        ProductsResponse response = reflective.fromJson(json, ProductsResponse.class);
+
+        System.out.println(String.format("%d products, %d bytes", products, json.length()));
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up the JIT.
+            boolean report = round == 1;
+            run(report, "parse reflective", seconds, () -> reflective.fromJson(json, ProductsResponse.class), json);
+            run(report, "parse adapters", seconds, () -> adapters.fromJson(json, ProductsResponse.class), json);
+            run(report, "serialize reflective", seconds, () -> reflective.toJson(response), json);
+            run(report, "serialize adapters", seconds, () -> adapters.toJson(response), json);
+        }
+    }
+
+    private static void run(boolean report, String name, long seconds, Runnable op, String json) {
+        long deadline = System.nanoTime() + seconds * 1000000000L;
+        long start = System.nanoTime();
+        int ops = 0;
+        while (System.nanoTime() < deadline) {
+            op.run();
+            ops++;
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        if (report) {
+            System.out.println(String.format("%-22s %10.0f ops/s %8.1f MB/s", name, ops / elapsed,
+                    ops * (double) json.length() / elapsed / (1024 * 1024)));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+public class CatalogTest {
+    private static final String PRODUCTS = "["
+            + "{'id': 'shirt', 'name': 'Shirt', 'colors': ["
+            + "  {'name': 'Green', 'imageUrls': ['http://img/shirt-green-1', 'http://img/shirt-green-2']},"
+            + "  {'name': 'Blue', 'imageUrls': ['http://img/shirt-blue']}],"
+            + " 'sizes': [{'id': 'S', 'name': 'Small'}, {'id': 'M', 'name': 'Medium'}]},"
+            + "{'id': 'mug', 'name': 'Mug', 'colors': [{'name': 'White', 'imageUrls': ['http://img/mug']}],"
+            + " 'sizes': [{'id': 'O', 'name': 'One size'}]}]";
+
+    private static List<Product> products(String json) {
+        Gson gson = new GsonBuilder().registerTypeAdapterFactory(new ModelTypeAdapters()).create();
+        return gson.fromJson(json, new TypeToken<List<Product>>() {}.getType());
+    }
+
+    @Test
+    public void shouldLookUpProductsColorsAndSizes() {
+        Catalog catalog = new Catalog(products(PRODUCTS));
+        Product shirt = catalog.getProducts().get(0);
+
+        assertEquals(2, catalog.size());
+        assertSame(shirt, catalog.getProduct("shirt"));
+        assertSame(shirt.getColors().get(1), catalog.getColor("shirt", "Blue"));
+        assertSame(shirt.getSizes().get(1), catalog.getSize("shirt", "M"));
+        assertNull(catalog.getProduct("hat"));
+        assertNull(catalog.getColor("mug", "Blue"));
+        assertNull(catalog.getSize("hat", "S"));
+
+        assertEquals(Arrays.asList("http://img/shirt-green-1", "http://img/shirt-green-2", "http://img/shirt-blue"),
+                catalog.getImageUrls("shirt"));
+        assertEquals(new HashSet<>(Arrays.asList("http://img/shirt-green-1", "http://img/shirt-green-2",
+                "http://img/shirt-blue", "http://img/mug")), catalog.getImageUrls());
+    }
+
+    @Test
+    public void shouldResolveOrdersAgainstNewCatalog() {
+        Catalog catalog = new Catalog(products(PRODUCTS));
+        Product shirt = catalog.getProduct("shirt");
+        Order order = new Order(shirt, catalog.getSize("shirt", "M"), catalog.getColor("shirt", "Blue"));
+
+        Catalog updated = new Catalog(products(PRODUCTS.replace("'Shirt'", "'T-Shirt'")));
+        Order resolved = updated.resolve(order);
+        assertSame(updated.getProduct("shirt"), resolved.getProduct());
+        assertSame(updated.getSize("shirt", "M"), resolved.getSize());
+        assertSame(updated.getColor("shirt", "Blue"), resolved.getColor());
+
+        Catalog withoutBlue = new Catalog(products(PRODUCTS.replace("'Blue'", "'Red'")));
+        assertNull(withoutBlue.resolve(order));
+    }
+
+    @Test
+    public void shouldNotLetProductsBeChanged() {
+        Catalog catalog = new Catalog(products(PRODUCTS));
+        Product shirt = catalog.getProduct("shirt");
+        assertSame(shirt.getImageUrls(), catalog.getImageUrls("shirt"));
+        for (List<?> list : Arrays.asList(shirt.getColors(), shirt.getSizes(), shirt.getImageUrls(),
+                shirt.getColors().get(0).getImageUrls())) {
+            try {
+                list.remove(0);
+                fail();
+            } catch (UnsupportedOperationException expected) {}
+        }
+    }
+}
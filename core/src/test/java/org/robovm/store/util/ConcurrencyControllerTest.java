@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ConcurrencyControllerTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void shouldWidenSaturatedWindowAndHalveOnTimeout() {
+        ConcurrencyController controller = new ConcurrencyController(2, 8);
+        assertTrue(controller.tryAcquire("a"));
+        assertTrue(controller.tryAcquire("a"));
+        assertFalse(controller.tryAcquire("a"));
+        assertTrue(controller.tryAcquire("b"));
+
+        // Each round of transfers with the window in full use widens it by one.
+        for (int i = 0; i < 6; i++) {
+            controller.release("a", 1000, FAST, FAST, false);
+            while (controller.tryAcquire("a")) {
+                // Keeps the window saturated.
+            }
+        }
+        assertEquals(4, controller.getWindow("a"));
+        assertEquals(2, controller.getWindow("b"));
+        assertEquals(100, controller.getLatency("a"), 0.1);
+        assertEquals(10000, controller.getThroughput("a"), 0.1);
+
+        controller.release("a", 0, FAST, FAST, true);
+        assertEquals(2, controller.getWindow("a"));
+        // Only once per round.
+        controller.release("a", 0, FAST, FAST, true);
+        assertEquals(2, controller.getWindow("a"));
+    }
+
+    @Test
+    public void shouldShrinkWindowWhenLatencyRises() {
+        ConcurrencyController controller = new ConcurrencyController(4, 8);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(controller.tryAcquire("a"));
+            controller.release("a", 1000, FAST, FAST, false);
+        }
+        assertEquals(4, controller.getWindow("a"));
+
+        assertTrue(controller.tryAcquire("a"));
+        controller.release("a", 1000, 10 * FAST, 10 * FAST, false);
+        assertEquals(2, controller.getWindow("a"));
+        // Failures which aren't timeouts don't count.
+        assertTrue(controller.tryAcquire("a"));
+        controller.release("a", 0, FAST, FAST, false);
+        assertEquals(2, controller.getWindow("a"));
+    }
+
+    @Test
+    public void shouldNotTakeLargeTransferForCongestion() {
+        ConcurrencyController controller = new ConcurrencyController(4, 8);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(controller.tryAcquire("a"));
+            controller.release("a", 1000, FAST, FAST, false);
+        }
+
+        // A hundred times the bytes, the response started as quickly as before.
+        assertTrue(controller.tryAcquire("a"));
+        controller.release("a", 100000, FAST, 100 * FAST, false);
+        assertEquals(4, controller.getWindow("a"));
+        assertEquals(10000, controller.getThroughput("a"), 0.1);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DiskCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldNotCollideOnSameFileName() throws IOException {
+        DiskCache cache = new DiskCache(folder.getRoot(), Long.MAX_VALUE);
+        File a = cache.put("http://a.example.com/shirt.jpg", stream("a"));
+        File b = cache.put("http://b.example.com/shirt.jpg", stream("b"));
+
+        assertNotEquals(a, b);
+        assertEquals("a", FileUtils.readFileToString(cache.get("http://a.example.com/shirt.jpg")));
+        assertEquals("b", FileUtils.readFileToString(cache.get("http://b.example.com/shirt.jpg")));
+    }
+
+    @Test
+    public void shouldShardByKeyPrefix() throws IOException {
+        DiskCache cache = new DiskCache(folder.getRoot(), Long.MAX_VALUE);
+        String key = DiskCache.keyFor("http://example.com/shirt.jpg");
+        File file = cache.put("http://example.com/shirt.jpg", stream("data"));
+
+        assertEquals(key, file.getName());
+        assertEquals(key.substring(0, 2), file.getParentFile().getName());
+    }
+
+    @Test
+    public void shouldLoadIndexOnOpen() throws IOException {
+        new DiskCache(folder.getRoot(), Long.MAX_VALUE).put("http://example.com/shirt.jpg", stream("data"));
+
+        DiskCache reopened = new DiskCache(folder.getRoot(), Long.MAX_VALUE);
+        assertEquals(1, reopened.size());
+        assertTrue(reopened.contains("http://example.com/shirt.jpg"));
+        assertNull(reopened.get("http://example.com/other.jpg"));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() throws IOException {
+        DiskCache cache = new DiskCache(folder.getRoot(), 10);
+        cache.put("http://example.com/1.jpg", stream("1111"));
+        cache.put("http://example.com/2.jpg", stream("2222"));
+        cache.get("http://example.com/1.jpg");
+        cache.put("http://example.com/3.jpg", stream("3333"));
+
+        assertTrue(cache.contains("http://example.com/1.jpg"));
+        assertFalse(cache.contains("http://example.com/2.jpg"));
+        assertTrue(cache.contains("http://example.com/3.jpg"));
+        assertEquals(8, cache.sizeInBytes());
+        assertFalse(cache.fileFor(DiskCache.keyFor("http://example.com/2.jpg")).exists());
+    }
+
+    @Test
+    public void shouldRestoreAccessOrderFromJournal() throws IOException {
+        DiskCache cache = new DiskCache(folder.getRoot(), 10);
+        cache.put("http://example.com/1.jpg", stream("1111"));
+        cache.put("http://example.com/2.jpg", stream("2222"));
+        cache.get("http://example.com/1.jpg");
+        cache.close();
+
+        DiskCache reopened = new DiskCache(folder.getRoot(), 10);
+        assertEquals(8, reopened.sizeInBytes());
+        reopened.put("http://example.com/3.jpg", stream("3333"));
+        assertTrue(reopened.contains("http://example.com/1.jpg"));
+        assertFalse(reopened.contains("http://example.com/2.jpg"));
+    }
+
+    @Test
+    public void shouldIgnoreTornJournalLines() throws IOException {
+        DiskCache cache = new DiskCache(folder.getRoot(), Long.MAX_VALUE);
+        cache.put("http://example.com/1.jpg", stream("1111"));
+        cache.close();
+        FileUtils.write(new File(folder.getRoot(), DiskCache.JOURNAL_FILE), "PUT 12", true);
+
+        DiskCache reopened = new DiskCache(folder.getRoot(), Long.MAX_VALUE);
+        assertEquals(1, reopened.size());
+        assertTrue(reopened.contains("http://example.com/1.jpg"));
+    }
+
+    @Test
+    public void shouldCompactJournalInBackground() throws IOException {
+        DiskCache cache = new DiskCache(folder.getRoot(), Long.MAX_VALUE);
+        cache.put("http://example.com/1.jpg", stream("1111"));
+        for (int i = 0; i < 5000; i++) {
+            cache.get("http://example.com/1.jpg");
+        }
+        cache.flush();
+
+        List<String> lines = FileUtils.readLines(new File(folder.getRoot(), DiskCache.JOURNAL_FILE), "UTF-8");
+        assertTrue(lines.size() < 5000);
+        assertEquals(DiskCache.JOURNAL_HEADER, lines.get(0));
+        cache.close();
+        assertTrue(new DiskCache(folder.getRoot(), Long.MAX_VALUE).contains("http://example.com/1.jpg"));
+    }
+
+    @Test
+    public void shouldNotLeaveTemporaryFiles() throws IOException {
+        DiskCache cache = new DiskCache(folder.getRoot(), Long.MAX_VALUE);
+        cache.put("http://example.com/1.jpg", stream("1111"));
+
+        assertEquals(0, new File(folder.getRoot(), "tmp").list().length);
+    }
+
+    @Test
+    public void shouldEvictUnreferencedBeforeLiveAndNeverPinned() throws IOException {
+        DiskCache cache = new DiskCache(folder.getRoot(), 12);
+        cache.put("http://example.com/pinned.jpg", stream("1111"));
+        cache.put("http://example.com/live.jpg", stream("2222"));
+        cache.put("http://example.com/retired.jpg", stream("3333"));
+        cache.setPinnedKeys(Collections.singleton(DiskCache.keyFor("http://example.com/pinned.jpg")));
+        cache.setLiveKeys(Collections.singleton(DiskCache.keyFor("http://example.com/live.jpg")));
+        cache.get("http://example.com/retired.jpg");
+
+        cache.put("http://example.com/new.jpg", stream("4444"));
+        assertTrue(cache.contains("http://example.com/pinned.jpg"));
+        assertTrue(cache.contains("http://example.com/live.jpg"));
+        assertFalse(cache.contains("http://example.com/retired.jpg"));
+
+        cache.setMaxSize(4);
+        assertTrue(cache.contains("http://example.com/pinned.jpg"));
+        assertFalse(cache.contains("http://example.com/live.jpg"));
+        assertEquals(4, cache.sizeInBytes());
+    }
+
+    @Test
+    public void shouldSweepUnreferencedEntries() throws IOException {
+        DiskCache cache = new DiskCache(folder.getRoot(), Long.MAX_VALUE);
+        cache.put("http://example.com/pinned.jpg", stream("1111"));
+        cache.put("http://example.com/live.jpg", stream("2222"));
+        cache.put("http://example.com/retired.jpg", stream("3333"));
+        assertEquals(0, cache.sweep());
+
+        cache.setPinnedKeys(Collections.singleton(DiskCache.keyFor("http://example.com/pinned.jpg")));
+        cache.setLiveKeys(Collections.singleton(DiskCache.keyFor("http://example.com/live.jpg")));
+        assertEquals(1, cache.sweep());
+        assertEquals(2, cache.size());
+        assertFalse(cache.fileFor(DiskCache.keyFor("http://example.com/retired.jpg")).exists());
+    }
+
+    @Test
+    public void shouldKeepInfoUntilReplaced() throws IOException {
+        DiskCache cache = new DiskCache(folder.getRoot(), Long.MAX_VALUE);
+        cache.put("http://example.com/shirt.jpg", stream("data"));
+        assertTrue(cache.setInfo("http://example.com/shirt.jpg", "JPEG 640 480 0"));
+
+        DiskCache reopened = new DiskCache(folder.getRoot(), Long.MAX_VALUE);
+        assertEquals("JPEG 640 480 0", reopened.getInfo("http://example.com/shirt.jpg"));
+        reopened.put("http://example.com/shirt.jpg", stream("other"));
+        assertNull(reopened.getInfo("http://example.com/shirt.jpg"));
+    }
+
+    @Test
+    public void shouldKeepStagedBytesOfFailedTransfer() throws IOException {
+        DiskCache cache = new DiskCache(folder.getRoot(), Long.MAX_VALUE);
+        InputStream failing = new InputStream() {
+            int remaining = 4;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining == 0) {
+                    throw new IOException("connection reset");
+                }
+                remaining--;
+                return 'a';
+            }
+        };
+        try {
+            cache.putResumable("http://example.com/shirt.jpg", failing, 0, Long.MAX_VALUE, null, null);
+            fail();
+        } catch (IOException expected) {}
+
+        DiskCache reopened = new DiskCache(folder.getRoot(), Long.MAX_VALUE);
+        assertFalse(reopened.contains("http://example.com/shirt.jpg"));
+        assertEquals(4, reopened.getStagedLength("http://example.com/shirt.jpg"));
+        File file = reopened.putResumable("http://example.com/shirt.jpg", stream("bb"), 4, Long.MAX_VALUE, null,
+                null);
+        assertEquals("aaaabb", FileUtils.readFileToString(file));
+        assertEquals(0, reopened.getStagedLength("http://example.com/shirt.jpg"));
+    }
+
+    private static ByteArrayInputStream stream(String s) {
+        return new ByteArrayInputStream(s.getBytes());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.robovm.store.util.DownloadScheduler.Priority;
+import org.robovm.store.util.DownloadScheduler.Ticket;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+public class DownloadSchedulerTest {
+    @Rule
+    public MockWebServer server = new MockWebServer();
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setup() {
+        ImageCache.getInstance().setSaveLocation(folder.getRoot().getAbsolutePath());
+    }
+
+    @Test
+    public void shouldRunHigherPrioritiesFirstAndSkipCancelled() throws InterruptedException {
+        DownloadScheduler scheduler = new DownloadScheduler(1);
+        server.enqueue(new MockResponse().setBody("a").setBodyDelay(300, TimeUnit.MILLISECONDS));
+        server.enqueue(new MockResponse().setBody("c"));
+        server.enqueue(new MockResponse().setBody("b"));
+
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.schedule(url("a"), Priority.VISIBLE, null);
+        assertEquals("/a", server.takeRequest().getPath());
+
+        scheduler.schedule(url("b"), Priority.PRELOAD, (file) -> done.countDown());
+        Ticket d = scheduler.schedule(url("d"), Priority.PRELOAD, (file) -> {
+            throw new AssertionError("cancelled download completed");
+        });
+        scheduler.schedule(url("c"), Priority.NEXT_SCREEN, null);
+        d.cancel();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals("/c", server.takeRequest().getPath());
+        assertEquals("/b", server.takeRequest().getPath());
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void shouldMoveReprioritizedDownloadAhead() throws InterruptedException {
+        DownloadScheduler scheduler = new DownloadScheduler(1);
+        server.enqueue(new MockResponse().setBody("a").setBodyDelay(300, TimeUnit.MILLISECONDS));
+        server.enqueue(new MockResponse().setBody("c"));
+        server.enqueue(new MockResponse().setBody("b"));
+
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.schedule(url("a"), Priority.VISIBLE, null);
+        assertEquals("/a", server.takeRequest().getPath());
+
+        scheduler.schedule(url("b"), Priority.NEXT_SCREEN, (file) -> done.countDown());
+        Ticket c = scheduler.schedule(url("c"), Priority.PRELOAD, null);
+        c.setPriority(Priority.VISIBLE);
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals("/c", server.takeRequest().getPath());
+        assertEquals("/b", server.takeRequest().getPath());
+    }
+
+    @Test
+    public void shouldLookUpCacheOffCallerThread() throws InterruptedException {
+        DownloadScheduler scheduler = new DownloadScheduler(1);
+        server.enqueue(new MockResponse().setBody("a"));
+        CountDownLatch downloaded = new CountDownLatch(1);
+        scheduler.schedule(url("a"), Priority.VISIBLE, (file) -> downloaded.countDown());
+        assertTrue(downloaded.await(10, TimeUnit.SECONDS));
+
+        CountDownLatch cached = new CountDownLatch(1);
+        Ticket ticket = scheduler.schedule(url("a"), Priority.VISIBLE, (file) -> cached.countDown());
+        // The lookup hasn't necessarily happened yet, the ticket can still be cancelled.
+        Ticket cancelled = scheduler.schedule(url("a"), Priority.VISIBLE, (file) -> {
+            throw new AssertionError("cancelled lookup delivered");
+        });
+        cancelled.cancel();
+        assertTrue(cached.await(10, TimeUnit.SECONDS));
+        assertTrue(ticket.isDone());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void shouldStartVisibleDownloadFirstOnceHostAdmitsOne() throws InterruptedException {
+        DownloadScheduler scheduler = new DownloadScheduler(4);
+        ConcurrencyController concurrency = ImageCache.getInstance().getConcurrencyController();
+        String host = ImageCache.hostOf(url("a"));
+        int held = 0;
+        while (concurrency.tryAcquire(host)) {
+            held++;
+        }
+        for (int i = 0; i < 4; i++) {
+            server.enqueue(new MockResponse().setBody("image"));
+        }
+
+        CountDownLatch done = new CountDownLatch(4);
+        scheduler.schedule(url("p1"), Priority.PRELOAD, (file) -> done.countDown());
+        scheduler.schedule(url("p2"), Priority.PRELOAD, (file) -> done.countDown());
+        scheduler.schedule(url("p3"), Priority.PRELOAD, (file) -> done.countDown());
+        scheduler.schedule(url("v"), Priority.VISIBLE, (file) -> done.countDown());
+        while (scheduler.getQueued(Priority.VISIBLE) == 0) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, scheduler.getQueued(Priority.PRELOAD));
+
+        // The host's window is full, nothing has been started.
+        concurrency.cancel(host);
+        assertEquals("/v", server.takeRequest().getPath());
+        for (int i = 1; i < held; i++) {
+            concurrency.cancel(host);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    private String url(String path) {
+        return server.url("/" + path).toString();
+    }
+}
@@ -15,16 +15,48 @@
  */
 package org.robovm.store.util;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.squareup.okhttp.mockwebserver.SocketPolicy;
+
+import okio.Buffer;
 
 public class ImageCacheTest {
     private static final String IMAGE_URL = "https://robovm.com/wp-content/uploads/2015/03/RoboVM-logo-wide.png";
 
+    @Rule
+    public MockWebServer server = new MockWebServer();
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Before
     public void setup() {
         ImageCache.getInstance().setSaveLocation(System.getProperty("user.home") + "/StoreAppTest");
@@ -39,6 +71,273 @@ public class ImageCacheTest {
     @Test
     public void shouldFallbackToDefaultImage() {
         File image = ImageCache.getInstance().downloadImage("http://www.robovm.com/not_existant.jpg");
-        assertTrue(image != null && image.getName().equals("placeholder.jpg"));
+        assertEquals(ImageCache.getInstance().getImage(ImageCache.PLACEHOLDER_URL), image);
+    }
+
+    @Test
+    public void shouldShareOneTransferBetweenConcurrentRequests() throws InterruptedException {
+        ImageCache.getInstance().setSaveLocation(folder.getRoot().getAbsolutePath());
+        server.enqueue(new MockResponse().setBody("image").setBodyDelay(300, TimeUnit.MILLISECONDS));
+        String url = server.url("/shirt.jpg").toString();
+
+        List<File> results = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 2; i++) {
+            new Thread(() -> {
+                results.add(ImageCache.getInstance().downloadImage(url));
+                done.countDown();
+            }).start();
+            ImageCache.getInstance().downloadImage(url, (file) -> {
+                results.add(file);
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, server.getRequestCount());
+        assertEquals(4, results.size());
+        for (File file : results) {
+            assertEquals(results.get(0), file);
+        }
+    }
+
+    @Test
+    public void shouldRevalidateStaleImageWithConditionalRequest() throws Exception {
+        ImageCache.getInstance().setSaveLocation(folder.getRoot().getAbsolutePath());
+        server.enqueue(new MockResponse().setBody("v1").setHeader("ETag", "\"v1\"")
+                .setHeader("Cache-Control", "max-age=0"));
+        server.enqueue(new MockResponse().setResponseCode(304).setHeader("Cache-Control", "max-age=0"));
+        server.enqueue(new MockResponse().setBody("v2").setHeader("ETag", "\"v2\""));
+        String url = server.url("/shirt.jpg").toString();
+
+        File first = ImageCache.getInstance().downloadImage(url);
+        assertNull(server.takeRequest().getHeader("If-None-Match"));
+
+        File second = ImageCache.getInstance().downloadImage(url);
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+        assertEquals(first, second);
+        assertEquals("v1", FileUtils.readFileToString(second));
+
+        File third = ImageCache.getInstance().downloadImage(url);
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+        assertEquals("v2", FileUtils.readFileToString(third));
+
+        ImageCache.getInstance().downloadImage(url);
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void shouldNotBlockUrlWhenServerIsUnreachable() throws IOException {
+        ImageCache.getInstance().setSaveLocation(folder.getRoot().getAbsolutePath());
+        ImageCache.getInstance().getNegativeCache().clear();
+        String url = server.url("/offline.jpg").toString();
+        server.shutdown();
+
+        assertEquals(ImageCache.getInstance().getImage(ImageCache.PLACEHOLDER_URL),
+                ImageCache.getInstance().downloadImage(url));
+        assertFalse(ImageCache.getInstance().getNegativeCache().isBlocked(url));
+        assertEquals(0, ImageCache.getInstance().getNegativeCache().getBlockedCount());
+    }
+
+    @Test
+    public void shouldNotRetryFailedUrlDuringBackoff() {
+        ImageCache.getInstance().setSaveLocation(folder.getRoot().getAbsolutePath());
+        ImageCache.getInstance().getNegativeCache().clear();
+        server.enqueue(new MockResponse().setResponseCode(404));
+        String url = server.url("/missing.jpg").toString();
+
+        ImageCache.getInstance().downloadImage(url);
+        ImageCache.getInstance().downloadImage(url);
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals(Integer.valueOf(1),
+                ImageCache.getInstance().getNegativeCache().getFailuresByHost().get(server.getHostName()));
+    }
+
+    @Test
+    public void shouldReportProgressWhileStreamingToDisk() {
+        ImageCache.getInstance().setSaveLocation(folder.getRoot().getAbsolutePath());
+        server.enqueue(new MockResponse().setBody(new Buffer().write(new byte[200 * 1024])));
+        String url = server.url("/large.jpg").toString();
+
+        List<DownloadProgress> events = new CopyOnWriteArrayList<>();
+        File image = ImageCache.getInstance().downloadImageWithProgress(url, events::add);
+
+        assertEquals(200 * 1024, image.length());
+        assertTrue(events.size() > 1);
+        DownloadProgress last = events.get(events.size() - 1);
+        assertEquals(200 * 1024, last.getBytesRead());
+        assertEquals(1f, last.getFraction(), 0);
+    }
+
+    @Test
+    public void shouldKeepDecodedImagesWhenDecoderIsSetAgain() throws IOException {
+        ImageCache cache = ImageCache.getInstance();
+        cache.setSaveLocation(folder.getRoot().getAbsolutePath());
+        cache.setDecoder(new StringDecoder(), 1024);
+        MemoryCache<?> memoryCache = cache.getMemoryCache();
+        String image = cache.decodeImage("https://example.com/shirt.jpg", folder.newFile("shirt.jpg"));
+        assertEquals("shirt.jpg", image);
+
+        cache.setDecoder(new StringDecoder(), 2048);
+        assertSame(memoryCache, cache.getMemoryCache());
+        assertEquals(2048, memoryCache.getMaxWeight());
+        assertEquals("shirt.jpg", cache.getMemoryImage("https://example.com/shirt.jpg"));
+    }
+
+    private static class StringDecoder implements ImageDecoder<String> {
+        @Override
+        public String decode(File file) {
+            return file.getName();
+        }
+
+        @Override
+        public long weigh(String image) {
+            return image.length();
+        }
+
+        @Override
+        public int averageColor(String image) {
+            return 0;
+        }
+    }
+
+    @Test
+    public void shouldShareMappingUntilReleased() throws IOException {
+        ImageCache.getInstance().setSaveLocation(folder.getRoot().getAbsolutePath());
+        server.enqueue(new MockResponse().setBody("image"));
+        String url = server.url("/shirt.jpg").toString();
+        ImageCache.getInstance().downloadImage(url);
+
+        MappedImage first = ImageCache.getInstance().mapImage(url);
+        MappedImage second = ImageCache.getInstance().mapImage(url);
+        assertSame(first.getMapping(), second.getMapping());
+        ByteBuffer buffer = first.getBuffer();
+        assertEquals(5, buffer.remaining());
+        assertEquals('i', buffer.get());
+        assertEquals(5, second.getBuffer().remaining());
+
+        first.close();
+        second.close();
+        MappedImage third = ImageCache.getInstance().mapImage(url);
+        assertNotSame(first.getMapping(), third.getMapping());
+        third.close();
+    }
+
+    @Test
+    public void shouldKeepMappingOpenWhenOtherHandleIsClosedTwice() throws IOException {
+        ImageCache.getInstance().setSaveLocation(folder.getRoot().getAbsolutePath());
+        server.enqueue(new MockResponse().setBody("image"));
+        String url = server.url("/shirt.jpg").toString();
+        ImageCache.getInstance().downloadImage(url);
+
+        MappedImage first = ImageCache.getInstance().mapImage(url);
+        MappedImage second = ImageCache.getInstance().mapImage(url);
+        first.close();
+        first.close();
+        assertEquals(5, second.getBuffer().remaining());
+        MappedImage third = ImageCache.getInstance().mapImage(url);
+        assertSame(second.getMapping(), third.getMapping());
+
+        second.close();
+        third.close();
+        try {
+            first.getBuffer();
+            fail();
+        } catch (IllegalStateException expected) {}
+    }
+
+    @Test
+    public void shouldRequestVariantSizedForViewport() throws Exception {
+        ImageCache cache = ImageCache.getInstance();
+        cache.setSaveLocation(folder.getRoot().getAbsolutePath());
+        server.enqueue(new MockResponse().setBody("large"));
+        server.enqueue(new MockResponse().setBody("thumbnail"));
+        String url = server.url("/variant.jpg").toString();
+
+        cache.setViewportWidth(300);
+        try {
+            File large = cache.downloadImage(cache.getVariantUrl(url));
+            File thumbnail = cache.downloadImage(cache.getVariantUrl(url, 72));
+
+            RecordedRequest request = server.takeRequest();
+            assertEquals("/variant.jpg?w=480", request.getPath());
+            request = server.takeRequest();
+            assertEquals("/variant.jpg?w=120", request.getPath());
+            assertEquals("large", FileUtils.readFileToString(large));
+            assertEquals("thumbnail", FileUtils.readFileToString(thumbnail));
+        } finally {
+            cache.setViewportWidth(0);
+        }
+    }
+
+    @Test
+    public void shouldServeBundledImagesWithoutNetwork() throws IOException {
+        ImageCache cache = ImageCache.getInstance();
+        cache.setSaveLocation(folder.newFolder("cache").getAbsolutePath());
+        String url = server.url("/bundled.jpg").toString();
+        File original = folder.newFile();
+        FileUtils.writeStringToFile(original, "original");
+        File medium = folder.newFile();
+        FileUtils.writeStringToFile(medium, "medium");
+        Map<String, File> images = new HashMap<>();
+        images.put(url, original);
+        images.put(cache.getVariantUrl(url, 480), medium);
+        File bundleDirectory = folder.newFolder("bundle");
+        ImageBundle.write(bundleDirectory, images);
+
+        cache.setBundle(ImageBundle.open(bundleDirectory));
+        try {
+            assertEquals("original", FileUtils.readFileToString(cache.downloadImage(url)));
+            assertEquals("medium", FileUtils.readFileToString(cache.downloadImage(cache.getVariantUrl(url, 300))));
+            assertEquals("medium", FileUtils.readFileToString(cache.getImage(cache.getVariantUrl(url, 1080))));
+            assertEquals(0, server.getRequestCount());
+        } finally {
+            cache.setBundle(null);
+        }
+    }
+
+    @Test
+    public void shouldRecordImageHeaderWhileDownloading() throws IOException {
+        ImageCache.getInstance().setSaveLocation(folder.getRoot().getAbsolutePath());
+        server.enqueue(new MockResponse().setBody(new Buffer().write(ImageHeaderParserTest.encode("png", 64, 32))));
+        String url = server.url("/header.png").toString();
+        ImageCache.getInstance().downloadImage(url);
+
+        ImageInfo info = ImageCache.getInstance().getImageInfo(url);
+        assertEquals(ImageInfo.Format.PNG, info.getFormat());
+        assertEquals(64, info.getWidth());
+        assertEquals(32, info.getHeight());
+        assertFalse(info.hasColor());
+    }
+
+    @Test
+    public void shouldResumeInterruptedTransfer() throws Exception {
+        ImageCache.getInstance().setSaveLocation(folder.getRoot().getAbsolutePath());
+        byte[] image = new byte[512 * 1024];
+        new Random(42).nextBytes(image);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String range = request.getHeader("Range");
+                if (range == null) {
+                    return new MockResponse().setHeader("ETag", "\"v1\"").setBody(new Buffer().write(image))
+                            .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+                }
+                int offset = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                return new MockResponse().setResponseCode(206).setHeader("ETag", "\"v1\"")
+                        .setHeader("Content-Range", "bytes " + offset + "-" + (image.length - 1) + "/" + image.length)
+                        .setBody(new Buffer().write(Arrays.copyOfRange(image, offset, image.length)));
+            }
+        });
+        String url = server.url("/large.jpg").toString();
+
+        File file = ImageCache.getInstance().downloadImage(url);
+        assertTrue(Arrays.equals(image, FileUtils.readFileToByteArray(file)));
+        assertEquals(2, server.getRequestCount());
+        server.takeRequest();
+        RecordedRequest resumed = server.takeRequest();
+        assertEquals("\"v1\"", resumed.getHeader("If-Range"));
+        assertTrue(resumed.getHeader("Range").matches("bytes=[1-9][0-9]*-"));
     }
 }
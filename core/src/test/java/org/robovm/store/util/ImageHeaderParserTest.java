@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+import org.robovm.store.util.ImageInfo.Format;
+
+public class ImageHeaderParserTest {
+    @Test
+    public void shouldReadPngHeader() throws IOException {
+        ImageInfo info = parse(encode("png", 640, 480), 7);
+        assertEquals(Format.PNG, info.getFormat());
+        assertEquals(640, info.getWidth());
+        assertEquals(480, info.getHeight());
+    }
+
+    @Test
+    public void shouldReadJpegHeaderByteByByte() throws IOException {
+        ImageInfo info = parse(encode("jpg", 300, 200), 1);
+        assertEquals(Format.JPEG, info.getFormat());
+        assertEquals(300, info.getWidth());
+        assertEquals(200, info.getHeight());
+    }
+
+    @Test
+    public void shouldIgnoreOtherFormats() {
+        ImageHeaderParser parser = new ImageHeaderParser();
+        byte[] gif = "GIF89a".getBytes();
+        assertTrue(parser.update(gif, 0, gif.length));
+        assertNull(parser.getInfo());
+    }
+
+    static byte[] encode(String format, int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, out);
+        return out.toByteArray();
+    }
+
+    private static ImageInfo parse(byte[] image, int chunkSize) {
+        ImageHeaderParser parser = new ImageHeaderParser();
+        for (int i = 0; i < image.length && !parser.isDone(); i += chunkSize) {
+            parser.update(image, i, Math.min(chunkSize, image.length - i));
+        }
+        assertTrue(parser.isDone());
+        return parser.getInfo();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class MemoryCacheTest {
+    @Test
+    public void shouldEvictByWeightInAccessOrder() {
+        MemoryCache<String> cache = new MemoryCache<>(10, String::length);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        cache.get("a");
+        cache.put("c", "cccc");
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(8, cache.getWeight());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void shouldReplaceWeightOfUpdatedEntry() {
+        MemoryCache<String> cache = new MemoryCache<>(10, String::length);
+        cache.put("a", "aaaa");
+        cache.put("a", "aa");
+
+        assertEquals(2, cache.getWeight());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void shouldCountHitsAndMisses() {
+        MemoryCache<String> cache = new MemoryCache<>(10, String::length);
+        cache.put("a", "aaaa");
+        cache.get("a");
+        cache.get("b");
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+}
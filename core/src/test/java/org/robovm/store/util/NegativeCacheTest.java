@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2013-2015 RoboVM AB
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.store.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class NegativeCacheTest {
+    private static final String URL = "http://images.example.com/missing.jpg";
+
+    private long now = 1000;
+
+    private final NegativeCache cache = new NegativeCache() {
+        @Override
+        protected long now() {
+            return now;
+        }
+    };
+
+    @Test
+    public void shouldDoubleBackoffOnConsecutiveFailures() {
+        cache.recordFailure(URL);
+        assertTrue(cache.isBlocked(URL));
+        now += NegativeCache.MIN_BACKOFF;
+        assertFalse(cache.isBlocked(URL));
+
+        cache.recordFailure(URL);
+        now += NegativeCache.MIN_BACKOFF;
+        assertTrue(cache.isBlocked(URL));
+        now += NegativeCache.MIN_BACKOFF;
+        assertFalse(cache.isBlocked(URL));
+    }
+
+    @Test
+    public void shouldCapBackoff() {
+        for (int i = 0; i < 40; i++) {
+            cache.recordFailure(URL);
+        }
+        now += NegativeCache.MAX_BACKOFF;
+        assertFalse(cache.isBlocked(URL));
+    }
+
+    @Test
+    public void shouldForgetUrlAfterSuccess() {
+        cache.recordFailure(URL);
+        cache.recordSuccess(URL);
+        assertFalse(cache.isBlocked(URL));
+        assertEquals(Integer.valueOf(1), cache.getFailuresByHost().get("images.example.com"));
+    }
+
+    @Test
+    public void shouldEvictLongExpiredFailuresOnInsert() {
+        cache.recordFailure(URL);
+        now += NegativeCache.MIN_BACKOFF + NegativeCache.MAX_BACKOFF;
+        cache.recordFailure("http://other.example.com/missing.jpg");
+        assertNull(cache.getFailuresByHost().get("images.example.com"));
+
+        // Counts as a first failure again.
+        cache.recordFailure(URL);
+        now += NegativeCache.MIN_BACKOFF;
+        assertFalse(cache.isBlocked(URL));
+    }
+}
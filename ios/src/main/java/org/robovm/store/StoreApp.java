@@ -15,13 +15,18 @@
  */
 package org.robovm.store;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.robovm.apple.coregraphics.CGRect;
 import org.robovm.apple.foundation.NSArray;
+import org.robovm.apple.foundation.NSBundle;
 import org.robovm.apple.foundation.NSAutoreleasePool;
 import org.robovm.apple.foundation.NSMutableArray;
 import org.robovm.apple.foundation.NSOperationQueue;
 import org.robovm.apple.foundation.NSPathUtilities;
 import org.robovm.apple.uikit.NSAttributedStringAttributes;
+import org.robovm.apple.uikit.UIAlertView;
 import org.robovm.apple.uikit.UIAppearance;
 import org.robovm.apple.uikit.UIApplication;
 import org.robovm.apple.uikit.UIApplicationDelegateAdapter;
@@ -35,12 +40,15 @@ import org.robovm.apple.uikit.UIScreen;
 import org.robovm.apple.uikit.UIStatusBarStyle;
 import org.robovm.apple.uikit.UIViewController;
 import org.robovm.apple.uikit.UIWindow;
+import org.robovm.store.api.QueuedOrder;
 import org.robovm.store.api.RoboVMWebService;
 import org.robovm.store.api.RoboVMWebService.ActionWrapper;
 import org.robovm.store.model.Product;
 import org.robovm.store.util.Action;
 import org.robovm.store.util.Colors;
+import org.robovm.store.util.ImageBundle;
 import org.robovm.store.util.ImageCache;
+import org.robovm.store.util.UIImageDecoder;
 import org.robovm.store.viewcontrollers.BasketViewController;
 import org.robovm.store.viewcontrollers.LoginViewController;
 import org.robovm.store.viewcontrollers.ProcessingViewController;
@@ -61,13 +69,32 @@ public class StoreApp extends UIApplicationDelegateAdapter {
     private UINavigationController navigation;
     private BasketButton basketButton;
 
+    /**
+     * Serves the images packaged into the app by the imageBundle task before
+     * anything has been downloaded.
+     */
+    private void mountImageBundle() {
+        File bundle = new File(NSBundle.getMainBundle().getResourcePath(), "image-bundle");
+        if (new File(bundle, ImageBundle.INDEX_FILE).exists()) {
+            try {
+                ImageCache.getInstance().setBundle(ImageBundle.open(bundle));
+            } catch (IOException e) {
+                System.err.println("could not open image bundle: " + e.getMessage());
+            }
+        }
+    }
+
     @SuppressWarnings("deprecation")
     @Override
     public boolean didFinishLaunching(UIApplication application, UIApplicationLaunchOptions launchOptions) {
         instance = this;
 
         ImageCache.getInstance().setSaveLocation(NSPathUtilities.getHomeDirectory() + "/Documents/");
-        RoboVMWebService.getInstance().setup();
+        ImageCache.getInstance().setDecoder(new UIImageDecoder(), 32 * 1024 * 1024);
+        ImageCache.getInstance().setViewportWidth((int) (UIScreen.getMainScreen().getBounds().getWidth()
+                * UIScreen.getMainScreen().getScale()));
+        mountImageBundle();
+        // Before any callback can fire, e.g. for the orders resumed below.
         ActionWrapper.WRAPPER = new ActionWrapper() {
             @Override
             public <T> void invoke(Action<T> action, T result) {
@@ -76,6 +103,10 @@ public class StoreApp extends UIApplicationDelegateAdapter {
                 });
             }
         };
+        RoboVMWebService.getInstance().setup();
+        // Before the orders left from the last run are resumed.
+        RoboVMWebService.getInstance().addOnDeferredOrderListener(this::showDeferredOrder);
+        RoboVMWebService.getInstance().setSaveLocation(NSPathUtilities.getHomeDirectory() + "/Documents/");
 
         UIApplication.getSharedApplication().setStatusBarStyle(UIStatusBarStyle.LightContent, false);
 
@@ -117,6 +148,16 @@ public class StoreApp extends UIApplicationDelegateAdapter {
         return true;
     }
 
+    @Override
+    public void didBecomeActive(UIApplication application) {
+        RoboVMWebService.getInstance().setInForeground(true);
+    }
+
+    @Override
+    public void didEnterBackground(UIApplication application) {
+        RoboVMWebService.getInstance().setInForeground(false);
+    }
+
     public void showProductDetail(Product product) {
         ProductDetailViewController productDetails = new ProductDetailViewController(product);
         productDetails.setAddToBasketListener((order) -> {
@@ -163,6 +204,22 @@ public class StoreApp extends UIApplicationDelegateAdapter {
         navigation.popToRootViewController(true);
     }
 
+    /**
+     * Tells the outcome of an order which has been sent in the background.
+     */
+    @SuppressWarnings("deprecation")
+    private void showDeferredOrder(QueuedOrder order) {
+        String message = "Your order has been placed!";
+        if (order.getStatus() == QueuedOrder.Status.REJECTED) {
+            message = "Your order could not be placed! Please try again later!";
+            if (order.getResponse() != null && order.getResponse().getErrors() != null
+                    && !order.getResponse().getErrors().isEmpty()) {
+                message = "Your order could not be placed: " + order.getResponse().getErrors().get(0);
+            }
+        }
+        new UIAlertView("Order", message, null, "OK").show();
+    }
+
     public UIBarButtonItem createBasketButton() {
         if (basketButton == null) {
             basketButton = new BasketButton();
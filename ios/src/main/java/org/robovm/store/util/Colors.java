@@ -30,6 +30,11 @@ public class Colors {
     public static final UIColor LightGray = fromColor(Color.LightGray);
     public static final UIColor DarkGray = UIColor.darkGray();
 
+    public static UIColor fromARGB(int argb) {
+        return UIColor.fromRGBA(((argb >> 16) & 0xFF) / 255.0, ((argb >> 8) & 0xFF) / 255.0, (argb & 0xFF) / 255.0,
+                ((argb >> 24) & 0xFF) / 255.0);
+    }
+
     private static UIColor fromColor(Color color) {
         return UIColor.fromRGBA(color.r, color.g, color.b, 1);
     }
@@ -0,0 +1,38 @@
+package org.robovm.store.util;
+
+import java.io.File;
+
+import org.robovm.apple.coregraphics.CGBitmapContext;
+import org.robovm.apple.coregraphics.CGBitmapInfo;
+import org.robovm.apple.coregraphics.CGColorSpace;
+import org.robovm.apple.coregraphics.CGImageAlphaInfo;
+import org.robovm.apple.coregraphics.CGInterpolationQuality;
+import org.robovm.apple.coregraphics.CGRect;
+import org.robovm.apple.coregraphics.CGSize;
+import org.robovm.apple.uikit.UIImage;
+
+public class UIImageDecoder implements ImageDecoder<UIImage> {
+    @Override
+    public UIImage decode(File file) {
+        return new UIImage(file);
+    }
+
+    @Override
+    public long weigh(UIImage image) {
+        CGSize size = image.getSize();
+        double scale = image.getScale();
+        // Decoded images use 4 bytes per pixel.
+        return (long) (size.getWidth() * scale) * (long) (size.getHeight() * scale) * 4;
+    }
+
+    @Override
+    public int averageColor(UIImage image) {
+        // Let Core Graphics scale the image down to a single RGBA pixel.
+        byte[] pixel = new byte[4];
+        CGBitmapContext context = CGBitmapContext.create(pixel, 1, 1, 8, 4, CGColorSpace.createDeviceRGB(),
+                new CGBitmapInfo(CGImageAlphaInfo.PremultipliedLast.value()));
+        context.setInterpolationQuality(CGInterpolationQuality.Medium);
+        context.drawImage(new CGRect(0, 0, 1, 1), image.getCGImage());
+        return (pixel[3] & 0xFF) << 24 | (pixel[0] & 0xFF) << 16 | (pixel[1] & 0xFF) << 8 | pixel[2] & 0xFF;
+    }
+}
@@ -15,7 +15,6 @@
  */
 package org.robovm.store.viewcontrollers;
 
-import java.io.File;
 import java.text.NumberFormat;
 
 import org.robovm.apple.coregraphics.CGPoint;
@@ -44,6 +43,8 @@ import org.robovm.apple.uikit.UIViewContentMode;
 import org.robovm.store.model.Basket;
 import org.robovm.store.model.Order;
 import org.robovm.store.util.Colors;
+import org.robovm.store.util.DownloadScheduler;
+import org.robovm.store.util.DownloadScheduler.Priority;
 import org.robovm.store.util.ImageCache;
 import org.robovm.store.views.BottomButtonView;
 import org.robovm.store.views.EmptyBasketView;
@@ -278,15 +279,19 @@ public class BasketViewController extends UITableViewController {
                 colorLabel.setText(order.getColor().getName());
                 priceLabel.setText(order.getProduct().getPriceDescription());
 
-                String imageUrl = order.getColor().getImageUrls().get(0);
-                File image = ImageCache.getInstance().getImage(imageUrl);
+                String imageUrl = ImageCache.getInstance().getVariantUrl(order.getColor().getImageUrls().get(0),
+                        (int) (IMAGE_SIZE.getWidth() * UIScreen.getMainScreen().getScale()));
+                UIImage image = ImageCache.getInstance().getMemoryImage(imageUrl);
                 if (image != null) {
-                    getImageView().setImage(new UIImage(image));
+                    getImageView().setImage(image);
                 } else {
                     // Put default before doing the web request;
                     getImageView().setImage(UIImage.getImage("shirt_image"));
-                    ImageCache.getInstance().downloadImage(imageUrl, (file) -> {
-                        getImageView().setImage(new UIImage(file));
+                    DownloadScheduler.getInstance().schedule(imageUrl, Priority.VISIBLE, (file) -> {
+                        UIImage downloaded = ImageCache.getInstance().decodeImage(imageUrl, file);
+                        if (downloaded != null) {
+                            getImageView().setImage(downloaded);
+                        }
                     });
                 }
             }
@@ -15,9 +15,8 @@
  */
 package org.robovm.store.viewcontrollers;
 
-import java.io.File;
-import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import org.robovm.apple.coregraphics.CGAffineTransform;
 import org.robovm.apple.coregraphics.CGPoint;
@@ -39,8 +38,10 @@ import org.robovm.apple.uikit.UIView;
 import org.robovm.apple.uikit.UIViewAnimationCurve;
 import org.robovm.apple.uikit.UIViewContentMode;
 import org.robovm.apple.uikit.UIViewController;
+import org.robovm.store.api.QueuedOrder;
 import org.robovm.store.api.RoboVMWebService;
 import org.robovm.store.api.ValidationError;
+import org.robovm.store.model.Product;
 import org.robovm.store.model.User;
 import org.robovm.store.util.Colors;
 import org.robovm.store.util.ImageCache;
@@ -91,16 +92,18 @@ public class ProcessingViewController extends UIViewController {
     private void processOrder() {
         processView.spinGear();
 
-        RoboVMWebService.getInstance().placeOrder(user, (response) -> {
-            if (response.isSuccess()) {
+        RoboVMWebService.getInstance().placeOrder(user, (order) -> {
+            if (order.getStatus() != QueuedOrder.Status.REJECTED) {
                 RoboVMWebService.getInstance().getBasket().clear();
 
-                processView.setStatus("Your order has been placed!");
+                // Otherwise it is sent in the background until it gets through.
+                processView.setStatus(order.getStatus() == QueuedOrder.Status.PLACED ? "Your order has been placed!"
+                        : "Your order will be placed as soon as you are back online.");
                 processView.stopGear();
 
                 showSuccess();
             } else {
-                List<ValidationError> errors = response.getErrors();
+                List<ValidationError> errors = order.getResponse() != null ? order.getResponse().getErrors() : null;
                 String alertMessage = "An unexpected error occurred! Please try again later!";
 
                 if (errors != null) { // We handle only the first error.
@@ -165,12 +168,12 @@ public class ProcessingViewController extends UIViewController {
                             (products) -> {
                                 SLComposeViewController svc = new SLComposeViewController(SLServiceType.Twitter);
                                 if (products != null && products.size() > 0) {
-                                    Collections.shuffle(products);
-
-                                    String imageUrl = products.get(0).getImageUrl();
-                                    File image = ImageCache.getInstance().getImage(imageUrl);
+                                    // The list is shared with the product list, pick without shuffling it.
+                                    Product product = products.get(new Random().nextInt(products.size()));
+                                    String imageUrl = ImageCache.getInstance().getVariantUrl(product.getImageUrl());
+                                    UIImage image = ImageCache.getInstance().getDecodedImage(imageUrl);
                                     if (image != null) {
-                                        svc.addImage(new UIImage(image));
+                                        svc.addImage(image);
                                     }
                                 }
                                 svc.addURL(new NSURL("http://robovm.com"));
@@ -52,6 +52,8 @@ import org.robovm.store.model.Product;
 import org.robovm.store.model.ProductColor;
 import org.robovm.store.model.ProductSize;
 import org.robovm.store.util.Action;
+import org.robovm.store.util.Colors;
+import org.robovm.store.util.DownloadScheduler;
 import org.robovm.store.util.ImageCache;
 import org.robovm.store.views.BottomButtonView;
 import org.robovm.store.views.CustomViewCell;
@@ -172,7 +174,7 @@ public class ProductDetailViewController extends UITableViewController {
     public void loadProductData() {
         colorOptions = currentProduct.getColors();
         sizeOptions = currentProduct.getSizes();
-        imageUrls = currentProduct.getImageUrls();
+        imageUrls = new ArrayList<>(currentProduct.getImageUrls());
         Collections.shuffle(imageUrls);
 
         boolean loadImages = false;
@@ -192,6 +194,15 @@ public class ProductDetailViewController extends UITableViewController {
         imageView.setUserInteractionEnabled(false);
 
         if (loadImages) {
+            if (!imageUrls.isEmpty()) {
+                DownloadScheduler.getInstance().lookUpInfo(ImageCache.getInstance().getVariantUrl(imageUrls.get(0)),
+                        (info) -> {
+                            if (info != null && info.hasColor()) {
+                                imageView.setBackgroundColor(Colors.fromARGB(info.getColor()));
+                            }
+                        });
+            }
+
             // Add spinner while loading data.
             getTableView().setModel(new ProductDetailPageModel(new SpinnerCell()));
 
@@ -206,7 +217,7 @@ public class ProductDetailViewController extends UITableViewController {
             List<UIImage> images = new ArrayList<>();
 
             for (String url : imageUrls) {
-                File path = ImageCache.getInstance().downloadImage(url);
+                File path = ImageCache.getInstance().downloadImage(ImageCache.getInstance().getVariantUrl(url));
                 if (path != null) {
                     images.add(new UIImage(path));
                 }
@@ -15,11 +15,13 @@
  */
 package org.robovm.store.viewcontrollers;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.robovm.apple.coreanimation.CALayer;
 import org.robovm.apple.coregraphics.CGRect;
 import org.robovm.apple.coregraphics.CGSize;
+import org.robovm.apple.foundation.NSArray;
 import org.robovm.apple.foundation.NSIndexPath;
 import org.robovm.apple.foundation.NSString;
 import org.robovm.apple.uikit.NSAttributedStringAttributes;
@@ -28,13 +30,16 @@ import org.robovm.apple.uikit.UIBarButtonItem;
 import org.robovm.apple.uikit.UIBarButtonItemStyle;
 import org.robovm.apple.uikit.UIFont;
 import org.robovm.apple.uikit.UILabel;
+import org.robovm.apple.uikit.UIScrollView;
 import org.robovm.apple.uikit.UITableView;
 import org.robovm.apple.uikit.UITableViewCell;
 import org.robovm.apple.uikit.UITableViewCellSelectionStyle;
 import org.robovm.apple.uikit.UITableViewCellSeparatorStyle;
 import org.robovm.apple.uikit.UITableViewController;
 import org.robovm.apple.uikit.UITableViewModel;
+import org.robovm.apple.uikit.UITableViewRowAnimation;
 import org.robovm.store.StoreApp;
+import org.robovm.store.api.CatalogPager;
 import org.robovm.store.api.RoboVMWebService;
 import org.robovm.store.model.Product;
 import org.robovm.store.util.Action;
@@ -61,11 +66,32 @@ public class ProductListViewController extends UITableViewController {
     }
 
     private void getData() {
-        RoboVMWebService.getInstance().getProducts((products) -> {
-            model.setProducts(products);
-            RoboVMWebService.getInstance().preloadProductImages();
-            getTableView().reloadData();
+        // Updates the changed rows or starts over with the new catalog once a
+        // stored one turns out to be outdated.
+        RoboVMWebService.getInstance().addOnCatalogChangeListener((change) -> {
+            if (change.isInPlace()) {
+                model.pager.replace(change.getChangedPositions(), change.getProducts());
+                List<NSIndexPath> rows = new ArrayList<>();
+                for (int position : change.getChangedPositions()) {
+                    rows.add(NSIndexPath.row(position, 0));
+                }
+                getTableView().reloadRows(new NSArray<>(rows), UITableViewRowAnimation.None);
+            } else {
+                showCatalog();
+            }
+        });
+        showCatalog();
+    }
+
+    private void showCatalog() {
+        CatalogPager pager = RoboVMWebService.getInstance().newCatalogPager();
+        pager.setOnChangeListener((p) -> {
+            if (p == model.pager) {
+                getTableView().reloadData();
+            }
         });
+        model.setPager(pager);
+        getTableView().reloadData();
     }
 
     @Override
@@ -76,10 +102,12 @@ public class ProductListViewController extends UITableViewController {
 
     static class ProductListViewModel extends UITableViewModel {
         private Action<Product> productSelected;
-        private List<Product> products;
+        private CatalogPager pager;
+        private int firstVisible, lastVisible;
 
-        public void setProducts(List<Product> products) {
-            this.products = products;
+        public void setPager(CatalogPager pager) {
+            this.pager = pager;
+            pager.setVisibleRange(firstVisible, lastVisible);
         }
 
         public void setProductSelectedListener(Action<Product> listener) {
@@ -88,22 +116,47 @@ public class ProductListViewController extends UITableViewController {
 
         @Override
         public long getNumberOfRowsInSection(UITableView tableView, long section) {
-            return products == null ? 1 : products.size();
+            return pager == null || pager.getCount() == 0 ? 1 : pager.getCount();
         }
 
         @Override
-        public void didSelectRow(UITableView tableView, NSIndexPath indexPath) {
-            if (products == null) {
-                return;
+        public void didScroll(UIScrollView scrollView) {
+            NSArray<NSIndexPath> rows = ((UITableView) scrollView).getIndexPathsForVisibleRows();
+            if (rows != null && !rows.isEmpty()) {
+                firstVisible = (int) rows.get(0).getRow();
+                lastVisible = (int) rows.get(rows.size() - 1).getRow();
+                if (pager != null) {
+                    pager.setVisibleRange(firstVisible, lastVisible);
+                }
+            }
+        }
+
+        @Override
+        public void didEndDragging(UIScrollView scrollView, boolean willDecelerate) {
+            if (!willDecelerate) {
+                RoboVMWebService.getInstance().preloadProductImages();
             }
-            if (productSelected != null) {
-                productSelected.invoke(products.get(indexPath.getRow()));
+        }
+
+        @Override
+        public void didEndDecelerating(UIScrollView scrollView) {
+            // The images of the rest of the catalog load while the list rests.
+            RoboVMWebService.getInstance().preloadProductImages();
+        }
+
+        @Override
+        public void didSelectRow(UITableView tableView, NSIndexPath indexPath) {
+            Product product = pager != null ? pager.get((int) indexPath.getRow()) : null;
+            if (product != null && productSelected != null) {
+                productSelected.invoke(product);
             }
         }
 
         @Override
         public UITableViewCell getCellForRow(UITableView tableView, NSIndexPath indexPath) {
-            if (products == null) {
+            // Null while its page is loading.
+            Product product = pager != null ? pager.get((int) indexPath.getRow()) : null;
+            if (product == null) {
                 return new SpinnerCell();
             }
 
@@ -111,7 +164,7 @@ public class ProductListViewController extends UITableViewController {
             if (cell == null) {
                 cell = new ProductListCell();
             }
-            cell.setProduct(products.get(indexPath.getRow()));
+            cell.setProduct(product);
             return cell;
         }
     }
@@ -174,6 +227,12 @@ public class ProductListViewController extends UITableViewController {
             imageView.loadUrl(url);
         }
 
+        @Override
+        public void prepareForReuse() {
+            super.prepareForReuse();
+            imageView.cancelLoad();
+        }
+
         @Override
         public void layoutSubviews() {
             super.layoutSubviews();
@@ -15,8 +15,6 @@
  */
 package org.robovm.store.views;
 
-import java.io.File;
-
 import org.robovm.apple.coregraphics.CGRect;
 import org.robovm.apple.coregraphics.CGSize;
 import org.robovm.apple.uikit.UIActivityIndicatorView;
@@ -24,6 +22,10 @@ import org.robovm.apple.uikit.UIActivityIndicatorViewStyle;
 import org.robovm.apple.uikit.UIImage;
 import org.robovm.apple.uikit.UIImageView;
 import org.robovm.apple.uikit.UIView;
+import org.robovm.store.util.Colors;
+import org.robovm.store.util.DownloadScheduler;
+import org.robovm.store.util.DownloadScheduler.Priority;
+import org.robovm.store.util.DownloadScheduler.Ticket;
 import org.robovm.store.util.ImageCache;
 
 public class TopAlignedImageView extends UIView {
@@ -31,6 +33,9 @@ public class TopAlignedImageView extends UIView {
     private final UIImageView imageView;
     private UIImage image;
     private UIActivityIndicatorView progress;
+    private Ticket ticket;
+    // The URL being loaded, until its image has arrived.
+    private String loadingUrl;
 
     public TopAlignedImageView() {
         setClipsToBounds(true);
@@ -49,6 +54,7 @@ public class TopAlignedImageView extends UIView {
         this.image = image;
         originalSize = image == null ? CGSize.Zero() : image.getSize();
         imageView.setImage(this.image = image);
+        imageView.setBackgroundColor(Colors.Clear);
         layoutSubviews();
     }
 
@@ -65,20 +71,44 @@ public class TopAlignedImageView extends UIView {
         imageView.setFrame(frame);
     }
 
-    public void loadUrl(String url) {
-        if (url == null || url.isEmpty()) {
+    public void loadUrl(String imageUrl) {
+        cancelLoad();
+        if (imageUrl == null || imageUrl.isEmpty()) {
             return;
         }
 
-        File image = ImageCache.getInstance().getImage(url);
+        String url = ImageCache.getInstance().getVariantUrl(imageUrl);
+        UIImage image = ImageCache.getInstance().getMemoryImage(url);
         if (image != null) {
-            setImage(new UIImage(image));
+            setImage(image);
         } else {
+            loadingUrl = url;
+            DownloadScheduler.getInstance().lookUpInfo(url, (info) -> {
+                if (info != null && url.equals(loadingUrl)) {
+                    // Lay out and paint the image's color until it has been decoded.
+                    originalSize = new CGSize(info.getWidth(), info.getHeight());
+                    if (info.hasColor()) {
+                        imageView.setBackgroundColor(Colors.fromARGB(info.getColor()));
+                    }
+                    layoutSubviews();
+                }
+            });
             progress.startAnimating();
-            ImageCache.getInstance().downloadImage(url, (file) -> {
-                if (file != null) {
+            int[] shown = {0};
+            ticket = DownloadScheduler.getInstance().schedule(url, Priority.VISIBLE, (p) -> {
+                // Show what has arrived of the image at every quarter.
+                int quarter = (int) (p.getFraction() * 4);
+                if (quarter > shown[0] && quarter < 4 && p.getPartialFile().exists()) {
+                    shown[0] = quarter;
+                    setImage(new UIImage(p.getPartialFile()));
+                }
+            }, (file) -> {
+                ticket = null;
+                loadingUrl = null;
+                UIImage downloaded = ImageCache.getInstance().decodeImage(url, file);
+                if (downloaded != null) {
                     UIView.animate(.3,
-                            () -> setImage(new UIImage(file)),
+                            () -> setImage(downloaded),
                             (success) -> progress.stopAnimating());
                 } else {
                     progress.stopAnimating();
@@ -86,4 +116,17 @@ public class TopAlignedImageView extends UIView {
             });
         }
     }
+
+    /**
+     * Cancels the download started by the last call to
+     * {@link #loadUrl(String)}, if it is still pending.
+     */
+    public void cancelLoad() {
+        loadingUrl = null;
+        if (ticket != null) {
+            ticket.cancel();
+            ticket = null;
+            progress.stopAnimating();
+        }
+    }
 }